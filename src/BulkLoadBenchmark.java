@@ -0,0 +1,156 @@
+import tree.BoundingBox;
+import tree.bulkload.BulkLoader;
+import tree.Node;
+import tree.RStarTree;
+import tree.bulkload.HilbertBulkLoader;
+import tree.bulkload.ParallelBulkLoader;
+import tree.bulkload.STRBulkLoader;
+import utils.BufferPool;
+import utils.DataMetaData;
+import utils.FileHandler;
+import utils.IndexMetaData;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares building the tree from the osm file by one-by-one R* insertion, STR packing, Hilbert packing and
+ * STR packing on every core.
+ * For every build it reports the build time and the shape of the tree, then runs the same random range and
+ * nearest neighbour queries with an emptied buffer pool before each query, and reports the node accesses,
+ * the node pages read from the index file, the mean distance in pages between consecutive reads, and the query time.
+ * Last it builds the tree with the parallel STR loader on 1, 2, 4... threads and reports the time spent packing the
+ * index, apart from writing the data file, and the speedup over one thread.
+ * Usage: BulkLoadBenchmark [indexPageSize] [numberOfQueries] [maxThreads]
+ */
+public class BulkLoadBenchmark {
+    private static final long SEED = 42;
+    private static final double[] RANGE_FRACTIONS = {0.01, 0.05}; // Query radii, as a fraction of the data extent
+    private static final int K = 10;
+
+    private interface Builder
+    {
+        RStarTree build() throws IOException;
+    }
+
+    private interface Query
+    {
+        void execute(double[] point);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int pageSize = args.length > 0 ? Integer.parseInt(args[0]) : IndexMetaData.DEFAULT_PAGE_SIZE;
+        int numberOfQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int blockSize = DataMetaData.DEFAULT_BLOCK_SIZE;
+
+        run("R* insertion", () -> new RStarTree(blockSize, pageSize), numberOfQueries);
+        run("STR", () -> RStarTree.bulkLoad(blockSize, pageSize, new STRBulkLoader()), numberOfQueries);
+        run("Hilbert", () -> RStarTree.bulkLoad(blockSize, pageSize, new HilbertBulkLoader()), numberOfQueries);
+        run("Parallel STR", () -> RStarTree.bulkLoad(blockSize, pageSize, new ParallelBulkLoader()), numberOfQueries);
+        sweepThreads(blockSize, pageSize, maxThreads);
+    }
+
+    /**
+     * Builds the tree with the parallel STR loader on 1, 2, 4... threads up to maxThreads. Only the packing of the
+     * index is timed, since parsing the osm file and writing the data file don't depend on the loader.
+     */
+    private static void sweepThreads(int blockSize, int pageSize, int maxThreads) throws IOException
+    {
+        System.out.println("Parallel STR by threads");
+        // The first build only warms up the JIT compiler, so that the single thread time isn't inflated
+        RStarTree.bulkLoad(blockSize, pageSize, new ParallelBulkLoader(BulkLoader.DEFAULT_FILL_FACTOR,
+                BulkLoader.DEFAULT_MAX_ENTRIES_IN_MEMORY, maxThreads)).close();
+        double singleThreadTime = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(2 * threads, maxThreads) : threads + 1)
+        {
+            long[] packingTime = new long[1];
+            ParallelBulkLoader loader = new ParallelBulkLoader(BulkLoader.DEFAULT_FILL_FACTOR,
+                    BulkLoader.DEFAULT_MAX_ENTRIES_IN_MEMORY, threads)
+            {
+                @Override
+                public Node load() throws IOException
+                {
+                    long startingTime = System.nanoTime();
+                    Node rootNode = super.load();
+                    packingTime[0] = System.nanoTime() - startingTime;
+                    return rootNode;
+                }
+            };
+            RStarTree rStarTree = RStarTree.bulkLoad(blockSize, pageSize, loader);
+            double time = packingTime[0] / 1e6;
+            if (threads == 1)
+            {
+                singleThreadTime = time;
+            }
+            System.out.printf(Locale.ROOT, "  %d threads: packing %.1f ms, speedup %.2f, height %d%n",
+                    threads, time, singleThreadTime / time, rStarTree.getTreeHeight());
+            rStarTree.close();
+        }
+    }
+
+    private static void run(String name, Builder builder, int numberOfQueries) throws IOException
+    {
+        long startingTime = System.nanoTime();
+        RStarTree rStarTree = builder.build();
+        double buildTime = (System.nanoTime() - startingTime) / 1e6;
+        System.out.println(name);
+        System.out.printf(Locale.ROOT, "  build: %.1f ms, %d nodes, height %d%n",
+                buildTime, IndexMetaData.getNumOfNodes(), rStarTree.getTreeHeight());
+
+        Node rootNode = FileHandler.getRootNode();
+        if (rootNode.getEntries().isEmpty())
+        {
+            rStarTree.close();
+            return;
+        }
+        BoundingBox bounds = BoundingBox.calculateMBR(rootNode.getEntries());
+        double extent = 0;
+        for (int d = 0; d < FileHandler.DIMENSIONS; d++)
+        {
+            extent = Math.max(extent, bounds.getUpperRightPoint()[d] - bounds.getLowerLeftValue(d));
+        }
+
+        for (double fraction : RANGE_FRACTIONS)
+        {
+            double range = fraction * extent;
+            measure(String.format(Locale.ROOT, "range r=%.4f", range), bounds, numberOfQueries,
+                    point -> rStarTree.executeRangeQuery(point, range, false));
+        }
+        measure("knn k=" + K, bounds, numberOfQueries, point -> rStarTree.executeNNQuery(point, K, false));
+        rStarTree.close();
+    }
+
+    /**
+     * Runs a query at random points of the bounds, emptying the buffer pool before each one so that every node
+     * the query visits is read from the index file
+     */
+    private static void measure(String name, BoundingBox bounds, int numberOfQueries, Query query)
+    {
+        Random random = new Random(SEED);
+        long accesses = 0, reads = 0, seekDistance = 0, time = 0;
+        for (int i = 0; i < numberOfQueries; ++i)
+        {
+            double[] point = new double[FileHandler.DIMENSIONS];
+            for (int d = 0; d < FileHandler.DIMENSIONS; d++)
+            {
+                double lower = bounds.getLowerLeftValue(d);
+                point[d] = lower + random.nextDouble() * (bounds.getUpperRightPoint()[d] - lower);
+            }
+            BufferPool.clear();
+            BufferPool.resetStatistics();
+            long startingTime = System.nanoTime();
+            query.execute(point);
+            time += System.nanoTime() - startingTime;
+            accesses += BufferPool.getHits() + BufferPool.getMisses();
+            reads += BufferPool.getMisses();
+            seekDistance += BufferPool.getSeekDistance();
+        }
+        System.out.printf(Locale.ROOT,
+                "  %s: %.1f node accesses, %.1f page reads %.1f pages apart and %.3f ms per query%n",
+                name, (double) accesses / numberOfQueries, (double) reads / numberOfQueries,
+                reads == 0 ? 0 : (double) seekDistance / reads, time / 1e6 / numberOfQueries);
+    }
+}
@@ -0,0 +1,375 @@
+import queries.LocationQueryResult;
+import queries.SequentialRangeQuery;
+import tree.BoundingBox;
+import tree.Entry;
+import tree.LeafEntry;
+import tree.Node;
+import tree.RStarTree;
+import tree.Record;
+import tree.bulkload.BulkLoader;
+import tree.bulkload.HilbertBulkLoader;
+import tree.bulkload.ParallelBulkLoader;
+import tree.bulkload.STRBulkLoader;
+import utils.DataMetaData;
+import utils.FileHandler;
+import utils.IndexMetaData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Checks the trees built by the bulk loaders from the osm file against scans of the data file.
+ * For every loader it checks that every record is indexed once, that the tree is a valid R-tree whose non-root
+ * nodes hold at least their minimum entries, and that random range queries return the same records as a
+ * SequentialRangeQuery, both with the records fetched and as locators only, before and after reopening the tree.
+ * Every record of the data file must be found by its id. Each loader then builds the tree again with an external
+ * sort budget of a few entries, so that every sort spills runs to disk, and must pack exactly the same leaves and
+ * leave no temporary files behind.
+ * Last the parallel STR loader builds the tree on 1, 2, 4 and 8 threads, whatever the number of cores. Every build
+ * must be valid, answer the range queries exactly like the serial STR tree, and pack the same leaves when it is
+ * repeated with the same number of threads.
+ * It overwrites the data and index files of the current directory, like BulkLoadBenchmark.
+ * Usage: BulkLoadTest [indexPageSize] [numberOfQueries]
+ */
+public class BulkLoadTest {
+    private static final long SEED = 42;
+    private static final int MAX_TEST_THREADS = 8;
+    private static final int TINY_MEMORY = 256; // Entries held in memory by the sorts of a spilling build
+    private static final double[] RANGE_FRACTIONS = {0.001, 0.01, 0.05, 0.2}; // Query radii, as a fraction of the data extent
+
+    private interface LoaderFactory
+    {
+        BulkLoader create(int maxEntriesInMemory);
+    }
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException
+    {
+        int pageSize = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int numberOfQueries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        checkLoader("STR", memory -> new STRBulkLoader(BulkLoader.DEFAULT_FILL_FACTOR, memory), pageSize,
+                numberOfQueries);
+        checkLoader("Hilbert", memory -> new HilbertBulkLoader(BulkLoader.DEFAULT_FILL_FACTOR, memory), pageSize,
+                numberOfQueries);
+        checkLoader("Parallel STR", memory -> new ParallelBulkLoader(BulkLoader.DEFAULT_FILL_FACTOR, memory,
+                Runtime.getRuntime().availableProcessors()), pageSize, numberOfQueries);
+        checkParallel(pageSize, numberOfQueries);
+
+        System.out.println(failures == 0 ? "all checks OK" : failures + " checks FAILED");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void checkLoader(String name, LoaderFactory loaderFactory, int pageSize, int numberOfQueries)
+            throws IOException
+    {
+        RStarTree rStarTree = RStarTree.bulkLoad(DataMetaData.DEFAULT_BLOCK_SIZE, pageSize,
+                loaderFactory.create(BulkLoader.DEFAULT_MAX_ENTRIES_IN_MEMORY));
+        System.out.printf(Locale.ROOT, "%s: %d records, %d nodes, height %d%n", name,
+                DataMetaData.getNumberOfRecords(), IndexMetaData.getNumOfNodes(), rStarTree.getTreeHeight());
+        check(name + " structure", checkStructure(rStarTree));
+        check(name + " ranges", checkRanges(rStarTree, numberOfQueries));
+        check(name + " ids", checkIds(rStarTree));
+        ArrayList<List<Long>> leaves = getLeaves();
+        rStarTree.close();
+
+        rStarTree = RStarTree.open(".");
+        check(name + " reopened ranges", checkRanges(rStarTree, numberOfQueries / 10 + 1));
+        rStarTree.close();
+
+        rStarTree = RStarTree.bulkLoad(DataMetaData.DEFAULT_BLOCK_SIZE, pageSize, loaderFactory.create(TINY_MEMORY));
+        String error = getLeaves().equals(leaves) ? checkStructure(rStarTree) :
+                "the leaves differ from the build in memory";
+        check(name + " spilled to disk", error != null ? error : checkTemporaryFiles());
+        rStarTree.close();
+    }
+
+    /**
+     * Compares parallel STR builds on several threads with the serial STR build
+     */
+    private static void checkParallel(int pageSize, int numberOfQueries) throws IOException
+    {
+        RStarTree rStarTree = RStarTree.bulkLoad(DataMetaData.DEFAULT_BLOCK_SIZE, pageSize, new STRBulkLoader());
+        ArrayList<double[]> queries = getRangeQueries(numberOfQueries);
+        ArrayList<HashSet<Long>> serialResults = new ArrayList<>();
+        for (double[] query : queries)
+        {
+            serialResults.add(getRangeResult(rStarTree, query));
+        }
+        int serialNodes = IndexMetaData.getNumOfNodes();
+        rStarTree.close();
+
+        for (int threads = 1; threads <= MAX_TEST_THREADS; threads *= 2)
+        {
+            String name = "Parallel STR on " + threads + " threads";
+            rStarTree = RStarTree.bulkLoad(DataMetaData.DEFAULT_BLOCK_SIZE, pageSize, new ParallelBulkLoader(
+                    BulkLoader.DEFAULT_FILL_FACTOR, BulkLoader.DEFAULT_MAX_ENTRIES_IN_MEMORY, threads));
+            System.out.printf(Locale.ROOT, "%s: %d nodes, height %d, serial STR %d nodes%n", name,
+                    IndexMetaData.getNumOfNodes(), rStarTree.getTreeHeight(), serialNodes);
+            String error = checkStructure(rStarTree);
+            for (int i = 0; error == null && i < queries.size(); i++)
+            {
+                if (!getRangeResult(rStarTree, queries.get(i)).equals(serialResults.get(i)))
+                {
+                    error = "range query " + i + " returns other records than on the serial STR tree";
+                }
+            }
+            ArrayList<List<Long>> leaves = getLeaves();
+            rStarTree.close();
+            check(name + " against serial", error);
+
+            rStarTree = RStarTree.bulkLoad(DataMetaData.DEFAULT_BLOCK_SIZE, pageSize, new ParallelBulkLoader(
+                    BulkLoader.DEFAULT_FILL_FACTOR, BulkLoader.DEFAULT_MAX_ENTRIES_IN_MEMORY, threads));
+            check(name + " repeated", getLeaves().equals(leaves) ? null : "the leaves differ from the first build");
+            rStarTree.close();
+        }
+    }
+
+    private static void check(String name, String error)
+    {
+        if (error == null)
+        {
+            System.out.println("  " + name + ": OK");
+        }
+        else
+        {
+            ++failures;
+            System.out.println("  " + name + ": FAILED, " + error);
+        }
+    }
+
+    /**
+     * Walks the whole tree from the root
+     * @return null if every record of the data file is in exactly one leaf, every leaf is at the same depth, every
+     * entry bounds its child and every non-root node holds at least its minimum entries, or else the first error
+     */
+    private static String checkStructure(RStarTree rStarTree)
+    {
+        HashSet<Long> recordLocators = new HashSet<>();
+        String error = checkNode(FileHandler.getRootNodeId(), null, rStarTree.getTreeHeight(), true, recordLocators);
+        if (error != null)
+        {
+            return error;
+        }
+        if (recordLocators.size() != DataMetaData.getNumberOfRecords())
+        {
+            return recordLocators.size() + " records are indexed, but the data file holds " +
+                    DataMetaData.getNumberOfRecords();
+        }
+        return null;
+    }
+
+    private static String checkNode(long nodeId, BoundingBox parentBoundingBox, int level, boolean isRoot,
+                                    HashSet<Long> recordLocators)
+    {
+        Node node = FileHandler.getNode(nodeId);
+        if (node == null || node.getLevel() != level)
+        {
+            return "node " + nodeId + " is missing or not at level " + level;
+        }
+        if (!isRoot && node.getEntries().size() < Node.getMinEntriesLimit(level))
+        {
+            return "node " + nodeId + " holds " + node.getEntries().size() + " entries, fewer than " +
+                    Node.getMinEntriesLimit(level);
+        }
+        if (node.getEntries().size() > Node.getMaxEntriesLimit(level))
+        {
+            return "node " + nodeId + " holds " + node.getEntries().size() + " entries, more than " +
+                    Node.getMaxEntriesLimit(level);
+        }
+        for (Entry entry : node.getEntries())
+        {
+            if (parentBoundingBox != null && !contains(parentBoundingBox, entry.getBoundingBox()))
+            {
+                return "an entry of node " + nodeId + " isn't bounded by its parent entry";
+            }
+            if (level == RStarTree.getLeafLevel())
+            {
+                if (!recordLocators.add(((LeafEntry) entry).getRecordLocator()))
+                {
+                    return "record " + ((LeafEntry) entry).getRecordLocator() + " is indexed twice";
+                }
+                continue;
+            }
+            String error = checkNode(entry.getChildNodeId(), entry.getBoundingBox(), level - 1, false, recordLocators);
+            if (error != null)
+            {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the record locators of every leaf, in depth first order
+     */
+    private static ArrayList<List<Long>> getLeaves()
+    {
+        ArrayList<List<Long>> leaves = new ArrayList<>();
+        addLeaves(FileHandler.getRootNode(), leaves);
+        return leaves;
+    }
+
+    private static void addLeaves(Node node, ArrayList<List<Long>> leaves)
+    {
+        if (node.getLevel() == RStarTree.getLeafLevel())
+        {
+            ArrayList<Long> recordLocators = new ArrayList<>();
+            for (Entry entry : node.getEntries())
+            {
+                recordLocators.add(((LeafEntry) entry).getRecordLocator());
+            }
+            leaves.add(recordLocators);
+            return;
+        }
+        for (Entry entry : node.getEntries())
+        {
+            addLeaves(FileHandler.getNode(entry.getChildNodeId()), leaves);
+        }
+    }
+
+    /**
+     * @return null if the external sorts deleted all their runs, or else the first file left
+     */
+    private static String checkTemporaryFiles() throws IOException
+    {
+        try (Stream<Path> files = Files.list(FileHandler.getPath("").toAbsolutePath())) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(fileName -> fileName.startsWith("bulkload") && fileName.endsWith(".tmp"))
+                    .findFirst()
+                    .map(fileName -> "the temporary file " + fileName + " was left")
+                    .orElse(null);
+        }
+    }
+
+    /**
+     * Looks up every record of the data file by its id, and an id that isn't in the data file
+     * @return null if every lookup returns the record, or else the first error
+     */
+    private static String checkIds(RStarTree rStarTree)
+    {
+        long maxId = Long.MIN_VALUE;
+        // Block 0 holds the header of the data file
+        for (long blockId = 1; blockId < DataMetaData.getNumberOfBlocks(); blockId++)
+        {
+            for (Record record : FileHandler.getDataBlock(blockId))
+            {
+                Record found = rStarTree.getById(record.getId());
+                if (found == null || !found.getName().equals(record.getName()) ||
+                        !Arrays.equals(found.getCoordinates(), record.getCoordinates()))
+                {
+                    return "record " + record.getId() + " of block " + blockId + " is found as " + found;
+                }
+                maxId = Math.max(maxId, record.getId());
+            }
+        }
+        if (maxId < Long.MAX_VALUE && rStarTree.getById(maxId + 1) != null)
+        {
+            return "the missing id " + (maxId + 1) + " is found";
+        }
+        return null;
+    }
+
+    private static boolean contains(BoundingBox outer, BoundingBox inner)
+    {
+        for (int d = 0; d < FileHandler.DIMENSIONS; d++)
+        {
+            if (inner.getLowerLeftValue(d) < outer.getLowerLeftValue(d) ||
+                    inner.getUpperRightPoint()[d] > outer.getUpperRightPoint()[d])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs random range queries around points of the data extent on the tree and on the data file
+     * @return null if the tree returns the records of the data file scan, with and without fetching the records,
+     * or else the first error
+     */
+    private static String checkRanges(RStarTree rStarTree, int numberOfQueries)
+    {
+        for (double[] query : getRangeQueries(numberOfQueries))
+        {
+            double[] point = Arrays.copyOf(query, FileHandler.DIMENSIONS);
+            double range = query[FileHandler.DIMENSIONS];
+
+            HashSet<Long> expected = new HashSet<>();
+            for (LocationQueryResult result : new SequentialRangeQuery(point, range).execute())
+            {
+                expected.add(result.getRecordId());
+            }
+            HashSet<Long> fetched = getRangeResult(rStarTree, query);
+            HashSet<Long> located = new HashSet<>();
+            for (LocationQueryResult result : rStarTree.executeRangeQuery(point, range, false))
+            {
+                located.add(FileHandler.getRecord(result.getRecordLocator()).getId());
+            }
+            if (!fetched.equals(expected) || !located.equals(expected))
+            {
+                return String.format(Locale.ROOT, "range %.5f around (%.5f, %.5f) returns %d fetched and %d " +
+                        "located records instead of %d", range, point[0], point[1], fetched.size(), located.size(),
+                        expected.size());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return random range queries around points of the data extent, each as its center followed by its radius.
+     * The same queries are returned for every tree over the same data file.
+     */
+    private static ArrayList<double[]> getRangeQueries(int numberOfQueries)
+    {
+        ArrayList<double[]> queries = new ArrayList<>();
+        Node rootNode = FileHandler.getRootNode();
+        if (rootNode.getEntries().isEmpty())
+        {
+            return queries;
+        }
+        BoundingBox extent = BoundingBox.calculateMBR(rootNode.getEntries());
+        double size = 0;
+        for (int d = 0; d < FileHandler.DIMENSIONS; d++)
+        {
+            size = Math.max(size, extent.getUpperRightPoint()[d] - extent.getLowerLeftValue(d));
+        }
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < numberOfQueries; i++)
+        {
+            double[] query = new double[FileHandler.DIMENSIONS + 1];
+            for (int d = 0; d < FileHandler.DIMENSIONS; d++)
+            {
+                query[d] = extent.getLowerLeftValue(d) +
+                        random.nextDouble() * (extent.getUpperRightPoint()[d] - extent.getLowerLeftValue(d));
+            }
+            query[FileHandler.DIMENSIONS] = RANGE_FRACTIONS[i % RANGE_FRACTIONS.length] * size;
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    private static HashSet<Long> getRangeResult(RStarTree rStarTree, double[] query)
+    {
+        HashSet<Long> recordIds = new HashSet<>();
+        for (LocationQueryResult result : rStarTree.executeRangeQuery(Arrays.copyOf(query, FileHandler.DIMENSIONS),
+                query[FileHandler.DIMENSIONS]))
+        {
+            recordIds.add(result.getRecordId());
+        }
+        return recordIds;
+    }
+}
@@ -4,6 +4,7 @@ import queries.SequentialRangeQuery;
 import tree.RStarTree;
 import utils.FileHandler;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Locale;
@@ -11,12 +12,32 @@ import java.util.Scanner;
 
 public class CLI {
 
-    public static void run()
+    /**
+     * Opens the tree stored in the current directory, or builds it from the osm file if it is missing or invalid
+     * @param rebuild whether the tree is always built from the osm file
+     * @return the tree
+     */
+    private static RStarTree loadTree(boolean rebuild)
+    {
+        if (!rebuild)
+        {
+            try {
+                return RStarTree.open(".");
+            } catch (IOException e) {
+                System.out.println("Could not open the stored index (" + e.getMessage() + "), rebuilding it");
+            }
+        }
+        RStarTree rStarTree = new RStarTree();
+        System.out.println(rStarTree.getIngestStatistics());
+        return rStarTree;
+    }
+
+    public static void run(boolean rebuild)
     {
         Scanner scanner = new Scanner(System.in);
         String input;
         ArrayList<LocationQueryResult> queryResults;
-        RStarTree rStarTree = new RStarTree();
+        RStarTree rStarTree = loadTree(rebuild);
         do {
             System.out.println("Options:");
             System.out.println("1) K - Nearest Neighbour Tree Query");
@@ -137,11 +158,12 @@ public class CLI {
             }
             scanner.nextLine(); // Flushing scanner buffer
         } while (true);
+        rStarTree.close();
 
     }
 
     public static void main(String[] args) {
-        run();
+        run(Arrays.asList(args).contains("--rebuild"));
         System.out.println("DONE!");
     }
 
@@ -0,0 +1,129 @@
+import tree.BoundingBox;
+import tree.Entry;
+import tree.LeafEntry;
+import tree.Node;
+import tree.Record;
+import tree.RStarTree;
+import utils.DataMetaData;
+import utils.FileHandler;
+import utils.IndexMetaData;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the serialisation of full leaf and internal nodes and of records into reused heap and direct buffers.
+ * For every codec it reports the time and the bytes allocated by the measuring thread per operation, after a
+ * warm-up run of the same length. Encoding into a reused buffer should allocate nothing, and decoding only the
+ * objects it returns.
+ * Usage: CodecBenchmark [indexPageSize] [iterations]
+ */
+public class CodecBenchmark {
+    private static final long SEED = 42;
+
+    private interface Codec
+    {
+        long run(int iteration);
+    }
+
+    private static long sink; // Consumed by every run, so that the JIT can't drop the measured work
+
+    public static void main(String[] args)
+    {
+        int pageSize = args.length > 0 ? Integer.parseInt(args[0]) : IndexMetaData.DEFAULT_PAGE_SIZE;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        IndexMetaData.reset(pageSize);
+
+        Random random = new Random(SEED);
+        Node leaf = fullNode(RStarTree.getLeafLevel(), random);
+        Node internal = fullNode(RStarTree.getLeafLevel() + 1, random);
+        Record[] records = new Record[1024];
+        for (int i = 0; i < records.length; ++i)
+        {
+            records[i] = randomRecord(i, random);
+        }
+
+        System.out.printf(Locale.ROOT, "page %d bytes, leaf %d entries, internal %d entries%n", pageSize,
+                leaf.getEntries().size(), internal.getEntries().size());
+        System.out.printf(Locale.ROOT, "%-24s %12s %12s%n", "codec", "ns/op", "bytes/op");
+        for (boolean direct : new boolean[]{false, true})
+        {
+            String kind = direct ? " (direct)" : " (heap)";
+            ByteBuffer page = direct ? ByteBuffer.allocateDirect(pageSize) : ByteBuffer.allocate(pageSize);
+            measure("leaf encode" + kind, iterations, i -> leaf.writeTo(page, 0));
+            leaf.writeTo(page, 0);
+            measure("leaf decode" + kind, iterations, i -> Node.readFrom(page, 0).getEntries().size());
+            measure("internal encode" + kind, iterations, i -> internal.writeTo(page, 0));
+            internal.writeTo(page, 0);
+            measure("internal decode" + kind, iterations, i -> Node.readFrom(page, 0).getEntries().size());
+
+            ByteBuffer block = direct ? ByteBuffer.allocateDirect(DataMetaData.DEFAULT_BLOCK_SIZE) :
+                    ByteBuffer.allocate(DataMetaData.DEFAULT_BLOCK_SIZE);
+            measure("record encode" + kind, iterations,
+                    i -> records[i & (records.length - 1)].writeTo(block, 0));
+            records[0].writeTo(block, 0);
+            measure("record decode" + kind, iterations, i -> Record.readFrom(block, 0).getId());
+        }
+        System.out.println("sink " + sink);
+    }
+
+    private static void measure(String name, int iterations, Codec codec)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; ++i)
+        {
+            sink += codec.run(i);
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+        {
+            sink += codec.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf(Locale.ROOT, "%-24s %12.1f %12.1f%n", name, (double) elapsed / iterations,
+                (double) allocated / iterations);
+    }
+
+    private static Node fullNode(int level, Random random)
+    {
+        Node node = new Node(level, 1);
+        for (int i = 0; i < Node.getMaxEntriesLimit(level); ++i)
+        {
+            double[] lowerLeft = new double[FileHandler.DIMENSIONS];
+            double[] upperRight = new double[FileHandler.DIMENSIONS];
+            for (int d = 0; d < FileHandler.DIMENSIONS; ++d)
+            {
+                lowerLeft[d] = random.nextDouble() * 100;
+                upperRight[d] = lowerLeft[d] + random.nextDouble();
+            }
+            BoundingBox boundingBox = new BoundingBox(lowerLeft, upperRight);
+            node.addEntry(level == RStarTree.getLeafLevel() ? new LeafEntry(boundingBox, random.nextInt() & 0xFFFFFF) :
+                    new Entry(boundingBox, 2 + i));
+        }
+        return node;
+    }
+
+    private static Record randomRecord(long id, Random random)
+    {
+        double[] coordinates = new double[FileHandler.DIMENSIONS];
+        for (int d = 0; d < FileHandler.DIMENSIONS; ++d)
+        {
+            coordinates[d] = random.nextDouble() * 100;
+        }
+        // Mostly ASCII names with some accented and CJK characters, like the names of the osm file
+        StringBuilder name = new StringBuilder();
+        int length = 4 + random.nextInt(20);
+        for (int i = 0; i < length; ++i)
+        {
+            int kind = random.nextInt(10);
+            name.append(kind < 8 ? (char) ('a' + random.nextInt(26)) : kind == 8 ? 'é' : '東');
+        }
+        return new Record(id, name.toString(), coordinates);
+    }
+}
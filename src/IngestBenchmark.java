@@ -0,0 +1,147 @@
+import tree.BoundingBox;
+import tree.RStarTree;
+import tree.Record;
+import tree.bulkload.STRBulkLoader;
+import utils.BufferPool;
+import utils.DataMetaData;
+import utils.FileHandler;
+import utils.IndexMetaData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares inserting records right away with inserting them through insertion buffers of several capacities, see
+ * RStarTree.setInsertionBufferCapacity.
+ * First the tree is built from the osm file by the ingest pipeline, which pushes every buffer down at least every
+ * IngestPipeline.MAX_UNCOMMITTED_BLOCKS blocks. Then a location feed is streamed into a tree bulk loaded from the osm
+ * file: records at uniformly random points of the data extent are inserted with insertAll in committed batches of
+ * several sizes, which bound how many records one push-down of the buffers can be amortised over, like the
+ * uncommitted blocks of the pipeline do.
+ * Every measurement runs with the default buffer pool, which holds every internal node of the tree, and with the
+ * smallest one, where descents from the root miss the pool as in the external memory setting buffer trees are
+ * designed for. For every run it reports the records inserted per second, the speedup over direct insertion, and
+ * the node fetches, pool misses and node writes per record.
+ * Usage: IngestBenchmark [indexPageSize] [feedRecords]
+ */
+public class IngestBenchmark {
+    private static final long SEED = 42;
+    private static final int[] BUFFER_CAPACITIES = {0, 64, 256, 1024};
+    private static final int[] POOL_CAPACITIES = {BufferPool.DEFAULT_CAPACITY, BufferPool.MIN_CAPACITY};
+    private static final long FIRST_FEED_ID = 1L << 40; // Above the ids of the osm file
+
+    private interface Ingest
+    {
+        Measurement run(int bufferCapacity) throws IOException;
+    }
+
+    /**
+     * The records inserted, the time they took and the statistics of the buffer pool meanwhile
+     */
+    private static class Measurement
+    {
+        private final long records;
+        private final long time;
+        private final long fetches = BufferPool.getHits() + BufferPool.getMisses();
+        private final long misses = BufferPool.getMisses();
+        private final long writes = BufferPool.getWrites();
+
+        /**
+         * Must be created right after the records are inserted, before the tree is closed
+         */
+        private Measurement(long records, long time)
+        {
+            this.records = records;
+            this.time = time;
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int pageSize = args.length > 0 ? Integer.parseInt(args[0]) : IndexMetaData.DEFAULT_PAGE_SIZE;
+        int feedRecords = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int blockSize = DataMetaData.DEFAULT_BLOCK_SIZE;
+
+        // Warm-up, so that the first measurement isn't the only one made before the JIT compiles the insertion
+        for (int bufferCapacity : BUFFER_CAPACITIES)
+        {
+            feed(blockSize, pageSize, bufferCapacity, feedRecords, feedRecords);
+        }
+        for (int poolCapacity : POOL_CAPACITIES)
+        {
+            BufferPool.setCapacity(poolCapacity);
+            run(String.format(Locale.ROOT, "Pipeline build, pool of %d nodes", poolCapacity), bufferCapacity -> {
+                BufferPool.resetStatistics();
+                long startingTime = System.nanoTime();
+                RStarTree rStarTree = new RStarTree(blockSize, pageSize, bufferCapacity);
+                Measurement measurement = new Measurement(DataMetaData.getNumberOfRecords(),
+                        System.nanoTime() - startingTime);
+                rStarTree.close();
+                return measurement;
+            });
+            for (int batchSize : new int[]{1, 64, 1024, feedRecords})
+            {
+                run(String.format(Locale.ROOT, "Feed in batches of %d, pool of %d nodes", batchSize, poolCapacity),
+                        bufferCapacity -> feed(blockSize, pageSize, bufferCapacity, feedRecords, batchSize));
+            }
+        }
+        BufferPool.setCapacity(BufferPool.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Bulk loads the tree from the osm file and inserts random records in committed batches. Only the insertions
+     * are timed and counted by the statistics of the buffer pool.
+     */
+    private static Measurement feed(int blockSize, int pageSize, int bufferCapacity, int feedRecords, int batchSize)
+            throws IOException
+    {
+        RStarTree rStarTree = RStarTree.bulkLoad(blockSize, pageSize, new STRBulkLoader());
+        rStarTree.setInsertionBufferCapacity(bufferCapacity);
+        BoundingBox bounds = BoundingBox.calculateMBR(FileHandler.getRootNode().getEntries());
+        Random random = new Random(SEED);
+        ArrayList<Record> batch = new ArrayList<>();
+
+        BufferPool.resetStatistics();
+        long startingTime = System.nanoTime();
+        for (int i = 0; i < feedRecords; i++)
+        {
+            double[] point = new double[FileHandler.DIMENSIONS];
+            for (int d = 0; d < FileHandler.DIMENSIONS; d++)
+            {
+                double lower = bounds.getLowerLeftValue(d);
+                point[d] = lower + random.nextDouble() * (bounds.getUpperRightPoint()[d] - lower);
+            }
+            batch.add(new Record(FIRST_FEED_ID + i, "feed " + i, point));
+            if (batch.size() == batchSize || i == feedRecords - 1)
+            {
+                rStarTree.insertAll(batch);
+                batch.clear();
+            }
+        }
+        Measurement measurement = new Measurement(feedRecords, System.nanoTime() - startingTime);
+        rStarTree.close();
+        return measurement;
+    }
+
+    private static void run(String name, Ingest ingest) throws IOException
+    {
+        System.out.println(name);
+        double directRate = 0;
+        for (int bufferCapacity : BUFFER_CAPACITIES)
+        {
+            Measurement measurement = ingest.run(bufferCapacity);
+            double records = measurement.records;
+            double rate = records / (measurement.time / 1e9);
+            if (bufferCapacity == 0)
+            {
+                directRate = rate;
+            }
+            System.out.printf(Locale.ROOT, "  %-18s %9.0f records/s, speedup %5.2f, per record %6.2f fetches, " +
+                            "%6.3f misses, %6.3f writes%n",
+                    bufferCapacity == 0 ? "direct" : "buffers of " + bufferCapacity, rate, rate / directRate,
+                    measurement.fetches / records, measurement.misses / records, measurement.writes / records);
+        }
+    }
+}
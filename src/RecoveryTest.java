@@ -0,0 +1,507 @@
+import queries.LocationQueryResult;
+import tree.Entry;
+import tree.Node;
+import tree.RStarTree;
+import tree.Record;
+import utils.BufferPool;
+import utils.DataMetaData;
+import utils.FileHandler;
+import utils.IndexMetaData;
+import utils.NodeDirectory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a tree stopped by a crash reopens to its last committed state.
+ * Every scenario builds a tree from a generated osm file in a directory of its own, in a child JVM, which runs a
+ * workload until it is stopped at a crash point, see FileHandler.crashPoint. Some scenarios then damage the files,
+ * as a crash in the middle of a write could, before a second child JVM reopens the
+ * files and checks that range queries return exactly the committed records, that every Node of the tree has a page
+ * of its own and that the NodeDirectory and the Meta Data hold exactly these Nodes. Last it inserts, deletes and
+ * compacts some more and checks the tree again after reopening it, so that a recovered free page chain or
+ * directory that is wrong but not yet used still fails.
+ * Usage: RecoveryTest [scenario...]
+ */
+public class RecoveryTest {
+    private static final int RECORDS = 4000;
+    private static final int PAGE_SIZE = 1024;
+    private static final double EXTENT = 10; // The records lie in [0, EXTENT) on every axis
+    private static final long FIRST_BATCH_ID = 500_000; // The first id of the records inserted by the workloads
+    private static final int BATCH = RECORDS / 2;
+    private static final long FIRST_VERIFY_ID = 1_000_000; // The first id of the records inserted by verify
+
+    private interface Workload
+    {
+        void run(RStarTree tree) throws IOException;
+    }
+
+    private interface Damage
+    {
+        void apply(Path directory) throws IOException;
+    }
+
+    /**
+     * A workload stopped by a crash, and the changes of it that must survive the crash
+     */
+    private static class Scenario
+    {
+        private final Workload workload;
+        private final Consumer<Set<Long>> committedChanges; // Applied to the ids of the osm file records
+        private final int unreachableNodes; // The committed Nodes that no entry references
+        private final Damage damage; // Applied to the files after the crash, or null
+
+        private Scenario(Workload workload, Consumer<Set<Long>> committedChanges)
+        {
+            this(workload, committedChanges, 0, null);
+        }
+
+        private Scenario(Workload workload, Consumer<Set<Long>> committedChanges, int unreachableNodes)
+        {
+            this(workload, committedChanges, unreachableNodes, null);
+        }
+
+        private Scenario(Workload workload, Consumer<Set<Long>> committedChanges, Damage damage)
+        {
+            this(workload, committedChanges, 0, damage);
+        }
+
+        private Scenario(Workload workload, Consumer<Set<Long>> committedChanges, int unreachableNodes, Damage damage)
+        {
+            this.workload = workload;
+            this.committedChanges = committedChanges;
+            this.unreachableNodes = unreachableNodes;
+            this.damage = damage;
+        }
+    }
+
+    private static final LinkedHashMap<String, Scenario> SCENARIOS = new LinkedHashMap<>();
+
+    static {
+        // The pages are logged, but the commit record isn't, and the data file has blocks past its committed end
+        SCENARIOS.put("insert-before-commit", new Scenario(tree -> {
+            crashAt("commit.started");
+            tree.insertAll(batch(0, BATCH));
+        }, ids -> { }));
+        SCENARIOS.put("insert-committed", new Scenario(tree -> {
+            crashAt("commit.appended");
+            tree.insertAll(batch(0, BATCH));
+        }, ids -> addBatch(ids, 0, BATCH)));
+        // With a few frames, the pool evicts changed Nodes to the log long before the commit
+        SCENARIOS.put("evicted-before-commit", new Scenario(tree -> {
+            BufferPool.setCapacity(BufferPool.MIN_CAPACITY);
+            tree.insertAll(batch(0, BATCH / 2));
+            if (BufferPool.getEvictions() == 0)
+            {
+                throw new IllegalStateException("The buffer pool evicted no Nodes");
+            }
+            crashAt("commit.started");
+            tree.insertAll(batch(BATCH / 2, BATCH));
+        }, ids -> addBatch(ids, 0, BATCH / 2)));
+        SCENARIOS.put("torn-page", new Scenario(tree -> {
+            BufferPool.setCapacity(BufferPool.MIN_CAPACITY);
+            crashAt("commit.started");
+            tree.insertAll(batch(0, BATCH));
+        }, ids -> { }, directory -> truncateLog(directory, PAGE_SIZE / 2)));
+        SCENARIOS.put("torn-commit", new Scenario(tree -> {
+            crashAt("commit.appended");
+            tree.insertAll(batch(0, BATCH));
+        }, ids -> { }, directory -> truncateLog(directory, 3)));
+        SCENARIOS.put("garbage-tail", new Scenario(tree -> {
+            crashAt("commit.appended");
+            tree.insertAll(batch(0, BATCH));
+        }, ids -> addBatch(ids, 0, BATCH), directory -> appendGarbage(directory, FileHandler.LOG_FILE_NAME, 100)));
+        // Only the committed sizes are valid, whatever a crash left past them
+        SCENARIOS.put("files-past-end", new Scenario(tree -> {
+            crashAt("commit.appended");
+            tree.insertAll(batch(0, BATCH));
+        }, ids -> addBatch(ids, 0, BATCH), directory -> {
+            appendGarbage(directory, FileHandler.DATA_FILE_NAME, DataMetaData.DEFAULT_BLOCK_SIZE + 10);
+            appendGarbage(directory, FileHandler.INDEX_FILE_NAME, 2 * PAGE_SIZE);
+        }));
+        // The log is applied to the index file, but the frees, headers and directory are not written
+        SCENARIOS.put("checkpoint-applied", new Scenario(tree -> {
+            prepareCheckpoint(tree);
+            crashAt("checkpoint.applied");
+            tree.checkpoint();
+        }, RecoveryTest::prepareCheckpoint));
+        // Everything is written, but the log isn't emptied, so the recovery redoes the checkpoint
+        SCENARIOS.put("checkpoint-written", new Scenario(tree -> {
+            prepareCheckpoint(tree);
+            crashAt("checkpoint.written");
+            tree.checkpoint();
+        }, RecoveryTest::prepareCheckpoint));
+        SCENARIOS.put("compact-remapped", new Scenario(tree -> {
+            prepareCompaction(tree);
+            crashAt("compact.remapped");
+            tree.compact();
+        }, RecoveryTest::removeEveryThird, 1));
+        SCENARIOS.put("compact-committed", new Scenario(tree -> {
+            prepareCompaction(tree);
+            crashAt("compact.committed");
+            tree.compact();
+        }, RecoveryTest::removeEveryThird));
+        SCENARIOS.put("compact-checkpointed", new Scenario(tree -> {
+            prepareCompaction(tree);
+            crashAt("compact.checkpointed");
+            tree.compact();
+        }, RecoveryTest::removeEveryThird));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length == 2 && args[0].equals("crash"))
+        {
+            crash(scenario(args[1]));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("verify"))
+        {
+            System.exit(verify(scenario(args[1])) ? 0 : 1);
+        }
+
+        int failures = 0;
+        for (String name : args.length > 0 ? Arrays.asList(args) : SCENARIOS.keySet())
+        {
+            scenario(name);
+            Path directory = Files.createTempDirectory("recovery-" + name);
+            writeOsmFile(directory.resolve(FileHandler.OSM_FILE_PATH));
+            String result;
+            int crashExitCode = runChild(directory, "crash", name);
+            if (crashExitCode != FileHandler.CRASH_EXIT_CODE)
+            {
+                result = "FAILED, the crash point wasn't reached (exit code " + crashExitCode + ")";
+            }
+            else
+            {
+                if (SCENARIOS.get(name).damage != null)
+                {
+                    SCENARIOS.get(name).damage.apply(directory);
+                }
+                result = runChild(directory, "verify", name) == 0 ? "OK" : "FAILED";
+            }
+            System.out.println(name + ": " + result);
+            if (result.equals("OK"))
+            {
+                deleteDirectory(directory);
+            }
+            else
+            {
+                ++failures;
+                System.out.println("  files left in " + directory);
+            }
+        }
+        System.out.println(failures == 0 ? "all scenarios OK" : failures + " scenarios FAILED");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static Scenario scenario(String name)
+    {
+        Scenario scenario = SCENARIOS.get(name);
+        if (scenario == null)
+        {
+            throw new IllegalArgumentException("Unknown scenario " + name + ", expected one of " + SCENARIOS.keySet());
+        }
+        return scenario;
+    }
+
+    /**
+     * Runs RecoveryTest in a child JVM with the same class path, in the directory of a scenario
+     * @return the exit code of the child
+     */
+    private static int runChild(Path directory, String mode, String name) throws IOException, InterruptedException
+    {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                RecoveryTest.class.getName(), mode, name)
+                .directory(directory.toFile())
+                .inheritIO()
+                .start();
+        return child.waitFor();
+    }
+
+    private static void crash(Scenario scenario) throws IOException
+    {
+        RStarTree tree = new RStarTree(DataMetaData.DEFAULT_BLOCK_SIZE, PAGE_SIZE);
+        scenario.workload.run(tree);
+        // Only reached if the workload missed its crash point, which the parent JVM reports
+        System.exit(0);
+    }
+
+    private static void crashAt(String crashPoint)
+    {
+        System.setProperty("rstar.crashPoint", crashPoint);
+    }
+
+    /**
+     * Deletes every third record and leaks a committed Node that no entry references, as a crash of an older
+     * version could, so that the compaction has both free pages and an unreachable Node to drop
+     */
+    private static void prepareCompaction(RStarTree tree)
+    {
+        for (long id = 3; id <= RECORDS; id += 3)
+        {
+            tree.delete(id);
+        }
+        tree.checkpoint();
+        FileHandler.insertNode(new Node(RStarTree.getLeafLevel(), IndexMetaData.getNextAvailableNodeId()));
+        FileHandler.commit();
+        tree.checkpoint();
+    }
+
+    private static void removeEveryThird(Set<Long> ids)
+    {
+        ids.removeIf(id -> id % 3 == 0);
+    }
+
+    /**
+     * Deletes every third record, which frees pages at the next checkpoint, and inserts a batch
+     */
+    private static void prepareCheckpoint(RStarTree tree)
+    {
+        for (long id = 3; id <= RECORDS; id += 3)
+        {
+            tree.delete(id);
+        }
+        tree.insertAll(batch(0, BATCH));
+    }
+
+    private static void prepareCheckpoint(Set<Long> ids)
+    {
+        removeEveryThird(ids);
+        addBatch(ids, 0, BATCH);
+    }
+
+    /**
+     * @return the records of the workload batch from the index from to the index to, exclusive
+     */
+    private static ArrayList<Record> batch(int from, int to)
+    {
+        ArrayList<Record> records = new ArrayList<>();
+        for (int i = from; i < to; ++i)
+        {
+            records.add(record(FIRST_BATCH_ID + i));
+        }
+        return records;
+    }
+
+    private static void addBatch(Set<Long> ids, int from, int to)
+    {
+        for (int i = from; i < to; ++i)
+        {
+            ids.add(FIRST_BATCH_ID + i);
+        }
+    }
+
+    /**
+     * Cuts the last bytes of the log, as a crash in the middle of appending its last record could
+     */
+    private static void truncateLog(Path directory, int bytes) throws IOException
+    {
+        try (FileChannel log = FileChannel.open(directory.resolve(FileHandler.LOG_FILE_NAME), StandardOpenOption.WRITE)) {
+            if (log.size() < bytes)
+            {
+                throw new IllegalStateException("The log has only " + log.size() + " bytes");
+            }
+            log.truncate(log.size() - bytes);
+        }
+    }
+
+    private static void appendGarbage(Path directory, String fileName, int bytes) throws IOException
+    {
+        byte[] garbage = new byte[bytes];
+        new Random(bytes).nextBytes(garbage);
+        Files.write(directory.resolve(fileName), garbage, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reopens the files of a scenario and checks the recovered tree
+     * @return whether every check passed
+     */
+    private static boolean verify(Scenario scenario) throws IOException
+    {
+        HashSet<Long> ids = new HashSet<>();
+        for (long id = 1; id <= RECORDS; ++id)
+        {
+            ids.add(id);
+        }
+        scenario.committedChanges.accept(ids);
+
+        RStarTree tree = RStarTree.open(".");
+        boolean ok = check("recovered", tree, ids, scenario.unreachableNodes);
+
+        // Use the recovered free pages and directory, then check what a later session sees. The compaction drops
+        // any unreachable Nodes.
+        ArrayList<Record> records = new ArrayList<>();
+        for (long id = FIRST_VERIFY_ID; id < FIRST_VERIFY_ID + RECORDS / 4; ++id)
+        {
+            records.add(record(id));
+            ids.add(id);
+        }
+        tree.insertAll(records);
+        for (long id = FIRST_VERIFY_ID; id < FIRST_VERIFY_ID + RECORDS / 4; id += 2)
+        {
+            tree.delete(id);
+            ids.remove(id);
+        }
+        tree.compact();
+        tree.close();
+        tree = RStarTree.open(".");
+        ok &= check("reopened", tree, ids, 0);
+        tree.close();
+        return ok;
+    }
+
+    private static boolean check(String stage, RStarTree tree, Set<Long> ids, int unreachableNodes) throws IOException
+    {
+        ArrayList<String> errors = new ArrayList<>();
+
+        // Range queries against the committed records
+        HashSet<Long> found = new HashSet<>();
+        for (LocationQueryResult result : tree.executeRangeQuery(new double[]{EXTENT / 2, EXTENT / 2}, EXTENT))
+        {
+            if (!found.add(result.getRecordId()))
+            {
+                errors.add("record " + result.getRecordId() + " is indexed twice");
+            }
+        }
+        if (!found.equals(ids))
+        {
+            HashSet<Long> missing = new HashSet<>(ids);
+            missing.removeAll(found);
+            found.removeAll(ids);
+            errors.add(missing.size() + " records are missing and " + found.size() + " are not committed");
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 20; ++i)
+        {
+            double[] point = {random.nextDouble() * EXTENT, random.nextDouble() * EXTENT};
+            double range = random.nextDouble() * EXTENT / 5;
+            long expected = ids.stream().filter(id -> distance(record(id).getCoordinates(), point) <= range).count();
+            int results = tree.executeRangeQuery(point, range).size();
+            if (results != expected)
+            {
+                errors.add(String.format(Locale.ROOT, "range %.3f around (%.3f, %.3f) returns %d records instead of %d",
+                        range, point[0], point[1], results, expected));
+            }
+        }
+
+        // The reachable Nodes against the directory and the Meta Data
+        HashSet<Long> nodes = new HashSet<>();
+        HashSet<Long> pages = new HashSet<>();
+        ArrayList<Long> pendingNodes = new ArrayList<>();
+        pendingNodes.add(FileHandler.getRootNodeId());
+        while (!pendingNodes.isEmpty())
+        {
+            long nodeId = pendingNodes.remove(pendingNodes.size() - 1);
+            long page = NodeDirectory.getPage(nodeId);
+            Node node = FileHandler.getNode(nodeId);
+            if (node == null || page <= 0 || page >= IndexMetaData.getNumOfPages() || !pages.add(page) ||
+                    !nodes.add(nodeId))
+            {
+                errors.add("Node " + nodeId + " at page " + page + " is missing or shares its page");
+                continue;
+            }
+            if (node.getLevel() != RStarTree.getLeafLevel())
+            {
+                for (Entry entry : node.getEntries())
+                {
+                    pendingNodes.add(entry.getChildNodeId());
+                }
+            }
+        }
+        int storedNodes = nodes.size() + unreachableNodes;
+        if (storedNodes != IndexMetaData.getNumOfNodes() || storedNodes != NodeDirectory.getNodeIds().length)
+        {
+            errors.add(nodes.size() + " Nodes are reachable and " + unreachableNodes + " are not, but the Meta Data " +
+                    "count " + IndexMetaData.getNumOfNodes() + " and the directory holds " +
+                    NodeDirectory.getNodeIds().length);
+        }
+
+        // Nothing past the committed end of the files
+        long indexFileSize = Files.size(FileHandler.getPath(FileHandler.INDEX_FILE_NAME));
+        if (indexFileSize > IndexMetaData.getNumOfPages() * IndexMetaData.getPageSize())
+        {
+            errors.add("the index file has " + indexFileSize + " bytes, past its " + IndexMetaData.getNumOfPages() +
+                    " pages");
+        }
+        long dataFileSize = Files.size(FileHandler.getPath(FileHandler.DATA_FILE_NAME));
+        if (dataFileSize != DataMetaData.getNumberOfBlocks() * DataMetaData.getBlockSize())
+        {
+            errors.add("the data file has " + dataFileSize + " bytes, but " + DataMetaData.getNumberOfBlocks() +
+                    " blocks");
+        }
+
+        for (String error : errors)
+        {
+            System.out.println("  " + stage + ": " + error);
+        }
+        return errors.isEmpty();
+    }
+
+    private static double distance(double[] point, double[] otherPoint)
+    {
+        double sum = 0;
+        for (int d = 0; d < point.length; d++)
+        {
+            sum += Math.pow(point[d] - otherPoint[d], 2);
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @return the record with the given id, whose coordinates only depend on the id
+     */
+    private static Record record(long id)
+    {
+        Random random = new Random(id);
+        return new Record(id, "place " + id, new double[]{random.nextDouble() * EXTENT, random.nextDouble() * EXTENT});
+    }
+
+    private static void writeOsmFile(Path osmFile) throws IOException
+    {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(osmFile, StandardCharsets.UTF_8))) {
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.println("<osm version=\"0.6\">");
+            for (long id = 1; id <= RECORDS; ++id)
+            {
+                Record record = record(id);
+                // Double.toString parses back to the same double, so the file holds exactly the coordinates of record
+                writer.printf(" <node id=\"%d\" lat=\"%s\" lon=\"%s\">%n", id, record.getCoordinates()[0],
+                        record.getCoordinates()[1]);
+                writer.printf(" <tag k=\"name\" v=\"%s\"/>%n", record.getName());
+                writer.println(" </node>");
+            }
+            writer.println("</osm>");
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+            {
+                Files.delete(file);
+            }
+        }
+    }
+}
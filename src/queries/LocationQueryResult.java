@@ -1,34 +1,74 @@
 package queries;
 
 import tree.Record;
+import utils.DataBlock;
 
 import java.util.Arrays;
+import java.util.Comparator;
 
 
 /**
  * Class used to store the information of query results.
  */
 public class LocationQueryResult implements Comparable<LocationQueryResult> {
-    private final String name;
+    private static final Comparator<String> NAME_COMPARATOR = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final String name; // null if the record was not read, see getRecordLocator()
     private final double[] coordinates;
     private final double distance;
+    private final long recordId; // The id of the record, or -1 if the record was not read
+    private final long recordLocator; // The block and the slot holding the record, or -1 if they are not known
 
     public LocationQueryResult(String name, double[] coordinates, double distance) {
         this.name = name;
         this.coordinates = coordinates;
         this.distance = distance;
+        this.recordId = -1;
+        this.recordLocator = -1;
     }
 
     public LocationQueryResult(Record record, double distance) {
+        this(record, -1, distance);
+    }
+
+    public LocationQueryResult(Record record, long recordLocator, double distance) {
         this.name = record.getName();
         this.coordinates = record.getCoordinates();
         this.distance = distance;
+        this.recordId = record.getId();
+        this.recordLocator = recordLocator;
+    }
+
+    /**
+     * Creates a result that only locates a record, without reading it from the data file.
+     * @param recordLocator the block and the slot holding the record, see DataBlock.toLocator.
+     * @param coordinates the point of the record, as stored in the index.
+     * @param distance the distance of the record from the query's target point.
+     */
+    public LocationQueryResult(long recordLocator, double[] coordinates, double distance) {
+        this.name = null;
+        this.coordinates = coordinates;
+        this.distance = distance;
+        this.recordId = -1;
+        this.recordLocator = recordLocator;
     }
 
     public String getName() {
         return name;
     }
 
+    public long getRecordId() {
+        return recordId;
+    }
+
+    public long getRecordLocator() {
+        return recordLocator;
+    }
+
+    public long getBlockId() {
+        return recordLocator < 0 ? -1 : DataBlock.blockIdOf(recordLocator);
+    }
+
     public double[] getCoordinates() {
         return coordinates;
     }
@@ -42,7 +82,9 @@ public class LocationQueryResult implements Comparable<LocationQueryResult> {
         int distanceCompRes = Double.compare(distance, other.getDistance());
 
         if (distanceCompRes == 0) {
-            return name.compareTo(other.getName());
+            // Results without a name only hold locators, so they are ordered by where their records are stored
+            int nameCompRes = NAME_COMPARATOR.compare(name, other.getName());
+            return nameCompRes != 0 ? nameCompRes : Long.compare(recordLocator, other.getRecordLocator());
         } else {
             return distanceCompRes;
         }
@@ -4,28 +4,32 @@ package queries;
  * Class used to store the information of a neighbor found from a query.
  */
 public class Neighbor implements Comparable<Neighbor> {
-    private final long blockId; // The unique ID of the block that contains the neighbor's record,
-    private final long recordId;
+    private final long recordLocator; // The block and the slot that contain the neighbor's record.
     private final double distance; // The distance of the neighbor from the query's target point.
+    private final double[] coordinates; // The point of the neighbor's record, or null if it is not known.
 
-    public Neighbor(long blockId, long recordId, double distance) {
-        this.blockId = blockId;
-        this.recordId = recordId;
-        this.distance = distance;
+    public Neighbor(long recordLocator, double distance) {
+        this(recordLocator, null, distance);
     }
 
-    public long getBlockId() {
-        return blockId;
+    public Neighbor(long recordLocator, double[] coordinates, double distance) {
+        this.recordLocator = recordLocator;
+        this.coordinates = coordinates;
+        this.distance = distance;
     }
 
-    public long getRecordId() {
-        return recordId;
+    public long getRecordLocator() {
+        return recordLocator;
     }
 
     public double getDistance() {
         return distance;
     }
 
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
     @Override
     public int compareTo(Neighbor other) {
         // Using this method, class objects are sorted
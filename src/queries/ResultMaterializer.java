@@ -0,0 +1,49 @@
+package queries;
+
+import utils.DataBlock;
+import utils.FileHandler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Turns the record locators collected by a query into query results. The locators are sorted, which groups them
+ * by data file block, so every block holding at least one result is read once, in block order, and only the slots
+ * of the results are decoded.
+ */
+class ResultMaterializer {
+
+    private ResultMaterializer() {
+    }
+
+    /**
+     * @param neighbors the locators of the matching records along with their distances, which are reordered.
+     * @param fetchRecords whether the records are read from the data file. If false, the results only hold the
+     *                     locators, the coordinates and the distances of the records.
+     * @return an unsorted ArrayList containing one result per locator.
+     */
+    static ArrayList<LocationQueryResult> materialize(ArrayList<Neighbor> neighbors, boolean fetchRecords) {
+        ArrayList<LocationQueryResult> queryResults = new ArrayList<>(neighbors.size());
+        if (!fetchRecords) {
+            for (Neighbor neighbor : neighbors) {
+                queryResults.add(new LocationQueryResult(neighbor.getRecordLocator(), neighbor.getCoordinates(),
+                        neighbor.getDistance()));
+            }
+            return queryResults;
+        }
+
+        neighbors.sort(Comparator.comparingLong(Neighbor::getRecordLocator));
+        DataBlock block = null;
+        long blockId = -1;
+        for (Neighbor neighbor : neighbors) {
+            long recordLocator = neighbor.getRecordLocator();
+            if (DataBlock.blockIdOf(recordLocator) != blockId) {
+                blockId = DataBlock.blockIdOf(recordLocator);
+                block = FileHandler.readDataBlock(blockId);
+            }
+            queryResults.add(new LocationQueryResult(block.getRecord(DataBlock.slotOf(recordLocator)), recordLocator,
+                    neighbor.getDistance()));
+        }
+        return queryResults;
+    }
+}
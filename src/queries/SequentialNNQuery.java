@@ -1,6 +1,7 @@
 package queries;
 
 import tree.*;
+import utils.DataBlock;
 import utils.DataMetaData;
 import utils.FileHandler;
 
@@ -54,15 +55,8 @@ public class SequentialNNQuery {
     public ArrayList<LocationQueryResult> execute() {
         search();
 
-        // Prepare the Array List that contains the result Records
-        int numNeighbors = kClosestNeighborsQueue.size();
-        for (int i = 0; i < numNeighbors; i++) {
-            Neighbor neighbor = kClosestNeighborsQueue.remove();
-            Record record = FileHandler.getRecord(neighbor.getBlockId(), neighbor.getRecordId()); // TODO: Get record from File Handler using neighbor.getRecordId(). CHECK!
-
-            // Add the record to the results list
-            queryResults.add(new LocationQueryResult(record, neighbor.getDistance()));
-        }
+        // Prepare the Array List that contains the result Records, reading each of their blocks once
+        queryResults.addAll(ResultMaterializer.materialize(new ArrayList<>(kClosestNeighborsQueue), true));
 
         Collections.sort(queryResults);
 
@@ -77,7 +71,8 @@ public class SequentialNNQuery {
 
         for (int blockId = 1; blockId < numBlocks; blockId++) {
             ArrayList<Record> blockRecords = FileHandler.getDataBlock(blockId);
-            for (Record record : blockRecords) {
+            for (int slot = 0; slot < blockRecords.size(); slot++) {
+                Record record = blockRecords.get(slot);
                 double candidateDistance = calculateDistanceFromTarget(record.getCoordinates());
 
                 if (kClosestNeighborsQueue.size() >= k) {
@@ -89,12 +84,12 @@ public class SequentialNNQuery {
                         // Remove the most distant neighbor from the priority queue and add leafEntry
                         // as a new neighbor.
                         kClosestNeighborsQueue.remove();
-                        kClosestNeighborsQueue.add(new Neighbor(blockId, record.getId(), candidateDistance));
+                        kClosestNeighborsQueue.add(new Neighbor(DataBlock.toLocator(blockId, slot), candidateDistance));
                     }
                 } else {
                     // The priority queue contains less than k neighbors, so leafEntry is
                     // simply added to the queue.
-                    kClosestNeighborsQueue.add(new Neighbor(blockId, record.getId(), candidateDistance));
+                    kClosestNeighborsQueue.add(new Neighbor(DataBlock.toLocator(blockId, slot), candidateDistance));
                 }
             }
         }
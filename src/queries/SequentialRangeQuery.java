@@ -1,6 +1,7 @@
 package queries;
 
 import tree.*;
+import utils.DataBlock;
 import utils.DataMetaData;
 import utils.FileHandler;
 
@@ -63,10 +64,11 @@ public class SequentialRangeQuery {
 
         for (int blockId = 1; blockId < numBlocks; blockId++) {
             ArrayList<Record> blockRecords = FileHandler.getDataBlock(blockId);
-            for (Record record : blockRecords) {
+            for (int slot = 0; slot < blockRecords.size(); slot++) {
+                Record record = blockRecords.get(slot);
                 double candidateDistance = calculateDistanceFromTarget(record.getCoordinates());
                 if (candidateDistance <= range) {
-                    queryResults.add(new LocationQueryResult(record,candidateDistance));
+                    queryResults.add(new LocationQueryResult(record, DataBlock.toLocator(blockId, slot), candidateDistance));
                 }
             }
         }
@@ -1,7 +1,7 @@
 package queries;
 
 import tree.*;
-import utils.FileHandler;
+import utils.BufferPool;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -15,34 +15,43 @@ public class TreeNNQuery {
     private final int k;
     private double searchRadius;
     PriorityQueue<Neighbor> kClosestNeighborsQueue; // Stores the k closest neighbors found, in descending order of distance.
-    private final Node rootNode;
+    private final NodeView rootNode;
     private final double[] targetPoint;
-    private final ArrayList<LocationQueryResult> queryResults;
+    private final boolean fetchRecords;
+    private ArrayList<LocationQueryResult> queryResults;
 
 
-    public TreeNNQuery(double[] targetPoint, int k, Node rootNode) {
+    public TreeNNQuery(double[] targetPoint, int k, NodeView rootNode) {
+        this(targetPoint, k, rootNode, true);
+    }
+
+    /**
+     * @param fetchRecords whether the records of the neighbors are read from the data file, or only their locators
+     *                     and coordinates are returned.
+     */
+    public TreeNNQuery(double[] targetPoint, int k, NodeView rootNode, boolean fetchRecords) {
         this.k = k;
         this.targetPoint = targetPoint;
         this.rootNode = rootNode;
+        this.fetchRecords = fetchRecords;
 
-        queryResults = new ArrayList<>();
         searchRadius = Double.MAX_VALUE;
         kClosestNeighborsQueue = new PriorityQueue<>();
     }
 
     private class CandidateBranch implements Comparable<CandidateBranch> {
-        Entry entry;
+        long childNodeId;
         double minDistance;
         double minMaxDistance;
 
-        public CandidateBranch(Entry entry, double minDistance, double minMaxDistance) {
-            this.entry = entry;
+        public CandidateBranch(long childNodeId, double minDistance, double minMaxDistance) {
+            this.childNodeId = childNodeId;
             this.minDistance = minDistance;
             this.minMaxDistance = minMaxDistance;
         }
 
-        public Entry getEntry() {
-            return entry;
+        public long getChildNodeId() {
+            return childNodeId;
         }
 
         public double getMinDistance() {
@@ -55,10 +64,22 @@ public class TreeNNQuery {
 
         @Override
         public int compareTo(CandidateBranch otherBranch) {
-            double distanceA = this.entry.getBoundingBox().calculateMinPointDistance(targetPoint);
-            double distanceB = otherBranch.getEntry().getBoundingBox().calculateMinPointDistance(targetPoint);
+            return Double.compare(minDistance, otherBranch.getMinDistance());
+        }
+    }
 
-            return Double.compare(distanceA, distanceB);
+    /**
+     * Adds the records that are not in the tree yet, such as those waiting in insertion buffers, to the candidate
+     * neighbors, so that the results include them. Must be called before execute.
+     * @param pendingEntries the leaf entries of the records.
+     */
+    public void addPendingEntries(Iterable<LeafEntry> pendingEntries) {
+        for (LeafEntry pendingEntry : pendingEntries) {
+            double candidateDistance = pendingEntry.getBoundingBox().calculateMinPointDistance(targetPoint);
+            if (kClosestNeighborsQueue.size() < k || candidateDistance < kClosestNeighborsQueue.peek().getDistance()) {
+                addCandidate(new Neighbor(pendingEntry.getRecordLocator(),
+                        pendingEntry.getBoundingBox().getLowerLeftPoint(), candidateDistance));
+            }
         }
     }
 
@@ -69,16 +90,8 @@ public class TreeNNQuery {
     public ArrayList<LocationQueryResult> execute() {
         search(rootNode);
 
-        // Prepare the Array List that contains the result Records
-        Neighbor neighbor = kClosestNeighborsQueue.poll();
-        while (neighbor != null) {
-            Record record = FileHandler.getRecord(neighbor.getBlockId(), neighbor.getRecordId());
-
-            // Add the record to the results list
-            queryResults.add(new LocationQueryResult(record, neighbor.getDistance()));
-
-            neighbor = kClosestNeighborsQueue.poll();
-        }
+        // Prepare the Array List that contains the result Records, reading each of their blocks once
+        queryResults = ResultMaterializer.materialize(new ArrayList<>(kClosestNeighborsQueue), fetchRecords);
 
         Collections.sort(queryResults);
 
@@ -89,17 +102,17 @@ public class TreeNNQuery {
      * Recursive method used to search for the nearest "k" neighbors of a given point.
      * @param currentNode the node which is to be processed.
      */
-    private void search(Node currentNode) {
-        if (currentNode.getLevel() != RStarTree.getLeafLevel()) {
+    private void search(NodeView currentNode) {
+        if (!currentNode.isLeaf()) {
             // Sort the activeBranches of the current node in ascending order of their
             // bounding box's distance from the target point.
             ArrayList<CandidateBranch> activeBranches = new ArrayList<>();
 
-            for (Entry entry : currentNode.getEntries()) {
-                double minDistance = entry.getBoundingBox().calculateMinPointDistance(targetPoint);
-                double minMaxDistance = entry.getBoundingBox().calculateMinMaxPointDistance(targetPoint);
+            for (int i = 0; i < currentNode.size(); i++) {
+                double minDistance = currentNode.minDistance(i, targetPoint);
+                double minMaxDistance = currentNode.minMaxDistance(i, targetPoint);
 
-                activeBranches.add(new CandidateBranch(entry, minDistance, minMaxDistance));
+                activeBranches.add(new CandidateBranch(currentNode.childId(i), minDistance, minMaxDistance));
 
             }
 
@@ -134,42 +147,42 @@ public class TreeNNQuery {
             for (CandidateBranch branch : activeBranches) {
                 // Pruning theorem 3
                 if (branch.getMinDistance() <= searchRadius) {
-                    Node nextNode = FileHandler.getNode(branch.getEntry().getChildNodeId());
+                    NodeView nextNode = BufferPool.fetchView(branch.getChildNodeId());
                     search(nextNode);
+                    BufferPool.unpinView(nextNode);
                 }
             }
         } else {
-            ArrayList<Entry> entries = currentNode.getEntries();
-
-            for (Entry entry : entries) {
-                LeafEntry leafEntry = (LeafEntry)entry;
-                double candidateDistance = leafEntry.getBoundingBox().calculateMinPointDistance(targetPoint);
-
-                if (kClosestNeighborsQueue.size() < k) {
-                    // The priority queue contains less than k neighbors, so leafEntry is
-                    // simply added to the queue.
-                    kClosestNeighborsQueue.add(new Neighbor(leafEntry.getBlockId(), leafEntry.getRecordId(), candidateDistance));
-
-                    if (kClosestNeighborsQueue.size() == k) {
-                        searchRadius = candidateDistance;
-                    }
-
-                } else {
-                    // The priority queue already contains k neighbors, so the most distant neighbor inside
-                    // the queue must be compared to the candidate leafEntry.
-                    double maxDistance = kClosestNeighborsQueue.peek().getDistance();
-
-                    if (candidateDistance < maxDistance) {
-                        // Remove the most distant neighbor from the priority queue and add leafEntry
-                        // as a new neighbor.
-                        kClosestNeighborsQueue.remove();
-                        kClosestNeighborsQueue.add(new Neighbor(leafEntry.getBlockId(), leafEntry.getRecordId(), candidateDistance));
-
-                        // Update the search radius
-                        searchRadius = candidateDistance;
-                    }
+            for (int i = 0; i < currentNode.size(); i++) {
+                double candidateDistance = currentNode.minDistance(i, targetPoint);
+                if (kClosestNeighborsQueue.size() < k || candidateDistance < kClosestNeighborsQueue.peek().getDistance()) {
+                    addCandidate(new Neighbor(currentNode.recordLocator(i), currentNode.point(i), candidateDistance));
                 }
             }
         }
     }
+
+    /**
+     * Adds a record to the k closest neighbors found, replacing the most distant one if k neighbors were found.
+     * @param candidate a record closer than the most distant neighbor found, or any record if fewer than k were found.
+     */
+    private void addCandidate(Neighbor candidate) {
+        if (kClosestNeighborsQueue.size() < k) {
+            // The priority queue contains less than k neighbors, so the candidate is
+            // simply added to the queue.
+            kClosestNeighborsQueue.add(candidate);
+
+            if (kClosestNeighborsQueue.size() == k) {
+                searchRadius = candidate.getDistance();
+            }
+        } else {
+            // Remove the most distant neighbor from the priority queue and add the candidate
+            // as a new neighbor.
+            kClosestNeighborsQueue.remove();
+            kClosestNeighborsQueue.add(candidate);
+
+            // Update the search radius
+            searchRadius = candidate.getDistance();
+        }
+    }
 }
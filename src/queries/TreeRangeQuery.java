@@ -1,10 +1,12 @@
 package queries;
 
 import tree.*;
-import utils.FileHandler;
+import utils.BufferPool;
+import utils.NodeDirectory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 
 /**
  * Class used to perform RStarTree-based range queries to detect the neighbors
@@ -12,63 +14,97 @@ import java.util.Collections;
  */
 public class TreeRangeQuery {
     private final double range;
-    private final Node rootNode;
+    private final NodeView rootNode;
     private final double[] targetPoint;
-    private final ArrayList<LocationQueryResult> queryResults;
+    private final boolean fetchRecords;
+    private final ArrayList<Neighbor> matches; // The locators of the records in range
+    private ArrayList<LocationQueryResult> queryResults;
 
-    public TreeRangeQuery(double[] targetPoint, double range, Node rootNode) {
+    public TreeRangeQuery(double[] targetPoint, double range, NodeView rootNode) {
+        this(targetPoint, range, rootNode, true);
+    }
+
+    /**
+     * @param fetchRecords whether the matching records are read from the data file, or only their locators and
+     *                     coordinates are returned.
+     */
+    public TreeRangeQuery(double[] targetPoint, double range, NodeView rootNode, boolean fetchRecords) {
         this.targetPoint = targetPoint;
         this.rootNode = rootNode;
         this.range = range;
+        this.fetchRecords = fetchRecords;
 
-        queryResults = new ArrayList<>();
+        matches = new ArrayList<>();
+    }
 
+    /**
+     * Adds the records that are not in the tree yet, such as those waiting in insertion buffers, to the records
+     * searched, so that the results include them. Must be called before execute.
+     * @param pendingEntries the leaf entries of the records.
+     */
+    public void addPendingEntries(Iterable<LeafEntry> pendingEntries) {
+        for (LeafEntry pendingEntry : pendingEntries) {
+            double candidateDistance = pendingEntry.getBoundingBox().calculateMinPointDistance(targetPoint);
+            if (candidateDistance <= range) {
+                matches.add(new Neighbor(pendingEntry.getRecordLocator(),
+                        pendingEntry.getBoundingBox().getLowerLeftPoint(), candidateDistance));
+            }
+        }
     }
 
     /**
-     * Called to initialize the recursive range search amd return the sorted query results.
+     * Called to initialize the range search amd return the sorted query results.
+     * The tree is searched level by level and the nodes of each level are read in the order of their pages, so that
+     * the nodes of a packed tree, which are stored in spatial order, are read close to sequentially.
      * @return an ArrayList containing the query results, sorted in ascending order of distance.
      */
     public ArrayList<LocationQueryResult> execute() {
-        search(rootNode);
+        ArrayList<Long> levelNodeIds = new ArrayList<>();
+        search(rootNode, levelNodeIds);
+        while (!levelNodeIds.isEmpty()) {
+            levelNodeIds.sort(Comparator.comparingLong(NodeDirectory::getPage));
+            ArrayList<Long> nextLevelNodeIds = new ArrayList<>();
+            for (long nodeId : levelNodeIds) {
+                NodeView node = BufferPool.fetchView(nodeId);
+                search(node, nextLevelNodeIds);
+                BufferPool.unpinView(node);
+            }
+            levelNodeIds = nextLevelNodeIds;
+        }
+        queryResults = ResultMaterializer.materialize(matches, fetchRecords);
         Collections.sort(queryResults);
 
         return queryResults;
     }
 
     /**
-     * Recursive method used to search for the neighbors of a given point in a specified radius.
+     * Searches a node for the neighbors of a given point in a specified radius.
+     * Entries are filtered straight from the node's page and only the locators of the records in range are kept.
      * @param currentNode the node which is to be processed.
+     * @param childNodeIds receives the ids of the child nodes that must be searched next.
      */
-    private void search(Node currentNode) {
-        ArrayList<Entry> nodeEntries = currentNode.getEntries();
-
-        if (currentNode.getLevel() != RStarTree.getLeafLevel()) {
+    private void search(NodeView currentNode, ArrayList<Long> childNodeIds) {
+        if (!currentNode.isLeaf()) {
             // The current node is not a leaf node and the overlap between its entries'
             // bounding boxes and the target point is checked
-            for (Entry entry : nodeEntries) {
-                if (entry.getBoundingBox().calculateMinPointDistance(targetPoint) <= range) {
+            for (int i = 0; i < currentNode.size(); i++) {
+                if (currentNode.minDistance(i, targetPoint) <= range) {
                     // The target point overlaps the entry's bounding box,
-                    // so we proceed to search inside the entry's child node.
-                    Node childNode = FileHandler.getNode(entry.getChildNodeId());
-                    search(childNode);
+                    // so the entry's child node is searched with the next level.
+                    childNodeIds.add(currentNode.childId(i));
                 }
             }
         } else {
             // The current node is a leaf node containing leaf entries
-            for (Entry entry : nodeEntries) {
-                LeafEntry leafEntry = (LeafEntry) entry;
-
-                double candidateDistance = leafEntry.getBoundingBox().calculateMinPointDistance(targetPoint);
+            for (int i = 0; i < currentNode.size(); i++) {
+                double candidateDistance = currentNode.minDistance(i, targetPoint);
                 if (candidateDistance <= range) {
                     // The distance between the leaf node's record and the target point is less than or equal to the
                     // specified range, so we proceed to add the leaf entry's record to the query results.
-                    Record record = FileHandler.getRecord(leafEntry.getBlockId(), leafEntry.getRecordId());
-                    queryResults.add(new LocationQueryResult(record, candidateDistance));
+                    matches.add(new Neighbor(currentNode.recordLocator(i), currentNode.point(i), candidateDistance));
                 }
             }
         }
     }
 
-
 }
@@ -1,8 +1,8 @@
 package tree;
 
-import utils.ByteConvertible;
 import utils.FileHandler;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -10,7 +10,7 @@ import java.util.List;
 import static java.lang.Math.sqrt;
 
 
-public class BoundingBox extends ByteConvertible {
+public class BoundingBox {
     private final double[] lowerLeftPoint; // The bottom left point of the bounding box
     private final double[] upperRightPoint; // The bottom right point of the bounding box
     private final int dimensions; // The number of dimensions of this bounding box
@@ -35,6 +35,24 @@ public class BoundingBox extends ByteConvertible {
         return lowerLeftPoint.clone();
     }
 
+    /**
+     * Getter method used to retrieve one value of the bounding box's lower left point, without copying the point.
+     * @param dimension the dimension of the value.
+     * @return the value of the lower left point in the given dimension.
+     */
+    public double getLowerLeftValue(int dimension) {
+        return lowerLeftPoint[dimension];
+    }
+
+    /**
+     * Getter method used to retrieve the center of the bounding box in one dimension, without copying its points.
+     * @param dimension the dimension of the value.
+     * @return the middle of the bounding box's extent in the given dimension.
+     */
+    public double getCenterValue(int dimension) {
+        return (lowerLeftPoint[dimension] + upperRightPoint[dimension]) / 2;
+    }
+
     /**
      * Getter method used to retrieve the values of the bounding box's upper right point.
      * @return a copy of the bounding box's array that contains the values of its upper right point.
@@ -102,8 +120,9 @@ public class BoundingBox extends ByteConvertible {
         double overlapProduct = 1;
 
         for (int i = 0; i < dimensions; i ++) {
-            double overlapDiff = Math.min(upperRightPoint[i], otherBB.getUpperRightPoint()[i])
-                    - Math.max(lowerLeftPoint[i], otherBB.getLowerLeftPoint()[i]);
+            // The points are read directly, since the getters copy them
+            double overlapDiff = Math.min(upperRightPoint[i], otherBB.upperRightPoint[i])
+                    - Math.max(lowerLeftPoint[i], otherBB.lowerLeftPoint[i]);
 
             if (overlapDiff <= 0) {
                 return 0;
@@ -115,15 +134,46 @@ public class BoundingBox extends ByteConvertible {
         return overlapProduct;
     }
 
+    /**
+     * Checks whether this bounding box and a given bounding box have at least one common point.
+     * @param otherBB the bounding box which is checked against this bounding box.
+     * @return true if the bounding boxes intersect or touch, false otherwise.
+     */
+    public boolean intersects(BoundingBox otherBB) {
+        return intersects(lowerLeftPoint, upperRightPoint, otherBB);
+    }
+
+    /**
+     * Checks whether the bounding box defined by the given points and a given bounding box have at least one
+     * common point. Used by NodeView, which reads bounding boxes straight from an index page.
+     */
+    static boolean intersects(double[] lowerLeftPoint, double[] upperRightPoint, BoundingBox otherBB) {
+        for (int d = 0; d < lowerLeftPoint.length; d++) {
+            if (lowerLeftPoint[d] > otherBB.upperRightPoint[d] || upperRightPoint[d] < otherBB.lowerLeftPoint[d]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Calculates the min distance between the bounding box and a given point.
      * @param targetPoint the given point for which the min distance from the bounding box is to be calculated.
      * @return a number representing the distance between the bounding box and the given point.
      */
     public double calculateMinPointDistance(double[] targetPoint) {
+        return calculateMinPointDistance(lowerLeftPoint, upperRightPoint, targetPoint);
+    }
+
+    /**
+     * Calculates the min distance between the bounding box defined by the given points and a given point.
+     * Used by NodeView, which reads bounding boxes straight from an index page.
+     */
+    static double calculateMinPointDistance(double[] lowerLeftPoint, double[] upperRightPoint, double[] targetPoint) {
         double sum = 0;
 
-        for (int d = 0; d < dimensions; d++) {
+        for (int d = 0; d < lowerLeftPoint.length; d++) {
             double rp;
 
             if (targetPoint[d] < lowerLeftPoint[d])
@@ -143,6 +193,16 @@ public class BoundingBox extends ByteConvertible {
      * @return a number representing the min-max distance between the bounding box and the given point.
      */
     public double calculateMinMaxPointDistance(double[] targetPoint) {
+        return calculateMinMaxPointDistance(lowerLeftPoint, upperRightPoint, targetPoint);
+    }
+
+    /**
+     * Calculates the min-max distance between the bounding box defined by the given points and a given point.
+     * Used by NodeView, which reads bounding boxes straight from an index page.
+     */
+    static double calculateMinMaxPointDistance(double[] lowerLeftPoint, double[] upperRightPoint,
+                                               double[] targetPoint) {
+        int dimensions = lowerLeftPoint.length;
         double minValue = Double.MAX_VALUE;
 
         for (int d = 0; d < dimensions; d++) {
@@ -229,45 +289,39 @@ public class BoundingBox extends ByteConvertible {
         return "BoundingBox(" + Arrays.toString(lowerLeftPoint) + ", " +  Arrays.toString(upperRightPoint) + ")";
     }
 
-    @Override
-    public byte[] toBytes() {
-        byte[] boundingBoxAsBytes = new byte[BYTES];
-        int destPos = 0;
+    public int getByteSize() {
+        return BYTES;
+    }
 
+    public int writeTo(ByteBuffer buffer, int offset) {
         for (int i = 0; i < FileHandler.DIMENSIONS; ++i)
         {
-            System.arraycopy(doubleToBytes(lowerLeftPoint[i]), 0, boundingBoxAsBytes, destPos, Double.BYTES);
-            destPos += Double.BYTES;
+            buffer.putDouble(offset, lowerLeftPoint[i]);
+            offset += Double.BYTES;
         }
         for (int i = 0; i < FileHandler.DIMENSIONS; ++i)
         {
-            System.arraycopy(doubleToBytes(upperRightPoint[i]), 0, boundingBoxAsBytes, destPos, Double.BYTES);
-            destPos += Double.BYTES;
+            buffer.putDouble(offset, upperRightPoint[i]);
+            offset += Double.BYTES;
         }
 
-        return boundingBoxAsBytes;
+        return offset;
     }
 
-    public static BoundingBox fromBytes(byte[] bytes)
+    /**
+     * Reads a bounding box serialised by writeTo, without changing the position of the buffer.
+     * @param buffer to read from.
+     * @param offset of the buffer where the bounding box starts.
+     * @return the deserialised bounding box.
+     */
+    public static BoundingBox readFrom(ByteBuffer buffer, int offset)
     {
-        byte[] lowerLeftPointAsBytes = new byte[Double.BYTES * FileHandler.DIMENSIONS],
-                upperRightPointAsBytes = new byte[Double.BYTES * FileHandler.DIMENSIONS];
-        int srcPos = 0;
-
-        System.arraycopy(bytes, srcPos, lowerLeftPointAsBytes, 0, lowerLeftPointAsBytes.length);
-        srcPos += lowerLeftPointAsBytes.length;
-        System.arraycopy(bytes, srcPos, upperRightPointAsBytes, 0, upperRightPointAsBytes.length);
-
         double[] lowerLeftPoint = new double[FileHandler.DIMENSIONS],
                 upperRightPoint = new double[FileHandler.DIMENSIONS];
-        byte[] pointValueAsBytes = new byte[Double.BYTES];
         for (int i = 0; i < FileHandler.DIMENSIONS; ++i)
         {
-            System.arraycopy(lowerLeftPointAsBytes, i * Double.BYTES, pointValueAsBytes, 0, Double.BYTES);
-            lowerLeftPoint[i] = bytesToDouble(pointValueAsBytes);
-
-            System.arraycopy(upperRightPointAsBytes, i * Double.BYTES, pointValueAsBytes, 0, Double.BYTES);
-            upperRightPoint[i] = bytesToDouble(pointValueAsBytes);
+            lowerLeftPoint[i] = buffer.getDouble(offset + i * Double.BYTES);
+            upperRightPoint[i] = buffer.getDouble(offset + (FileHandler.DIMENSIONS + i) * Double.BYTES);
         }
 
         return new BoundingBox(lowerLeftPoint, upperRightPoint);
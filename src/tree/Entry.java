@@ -1,16 +1,17 @@
 package tree;
 
-import utils.ByteConvertible;
+
+import java.nio.ByteBuffer;
 
 
 /**
  * Class used to represent the entries each node contains.
  */
-public class Entry extends ByteConvertible {
+public class Entry {
     protected BoundingBox boundingBox; // The minimum bounding box of the entry that is determined based on its child node.
     private final long childNodeId; // The child node's unique ID.
-    // (isLeafNode, BoundingBox, childNodeId, recordId, blockId)
-    public static final int BYTES = BoundingBox.BYTES + 3 * Long.BYTES;
+    // (BoundingBox, childNodeId)
+    public static final int BYTES = BoundingBox.BYTES + Long.BYTES;
 
     public Entry(BoundingBox boundingBox, long childNodeId) {
         this.boundingBox = boundingBox;
@@ -39,30 +40,27 @@ public class Entry extends ByteConvertible {
         return "Entry(" + boundingBox.toString() + ", " + "childNodeId(" + childNodeId + "))";
     }
 
-    @Override
-    public byte[] toBytes()
+    public int getByteSize()
     {
-        byte[] entryAsBytes = new byte[BYTES];
-        int destPos = 0;
-
-        System.arraycopy(boundingBox.toBytes(), 0, entryAsBytes, destPos, BoundingBox.BYTES);
-        destPos += BoundingBox.BYTES;
-        System.arraycopy(longToBytes(childNodeId), 0, entryAsBytes, destPos, Long.BYTES);
-
-        return entryAsBytes;
+        return BYTES;
     }
 
-
-    public static Entry fromBytes(byte[] bytes)
+    public int writeTo(ByteBuffer buffer, int offset)
     {
-        byte[] boundingBoxAsBytes = new byte[BoundingBox.BYTES],
-                childNodeIdAsBytes = new byte[Long.BYTES];
-        int srcPos = 0;
+        offset = boundingBox.writeTo(buffer, offset);
+        buffer.putLong(offset, childNodeId);
 
-        System.arraycopy(bytes, srcPos, boundingBoxAsBytes, 0, boundingBoxAsBytes.length);
-        srcPos += boundingBoxAsBytes.length;
-        System.arraycopy(bytes, srcPos, childNodeIdAsBytes, 0, childNodeIdAsBytes.length);
+        return offset + Long.BYTES;
+    }
 
-        return new Entry(BoundingBox.fromBytes(boundingBoxAsBytes), bytesToLong(childNodeIdAsBytes));
+    /**
+     * Reads an entry serialised by writeTo, without changing the position of the buffer.
+     * @param buffer to read from.
+     * @param offset of the buffer where the entry starts.
+     * @return the deserialised entry.
+     */
+    public static Entry readFrom(ByteBuffer buffer, int offset)
+    {
+        return new Entry(BoundingBox.readFrom(buffer, offset), buffer.getLong(offset + BoundingBox.BYTES));
     }
 }
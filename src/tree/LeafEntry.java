@@ -1,65 +1,74 @@
 package tree;
 
+import utils.DataBlock;
+import utils.FileHandler;
+
+import java.nio.ByteBuffer;
+
 /**
  * Class used to represent the Leaf Entries containing the data records at the lowest level of the tree.
  */
 public class LeafEntry extends Entry {
-    private final long recordId; // The unique ID of the record the leaf entry points to.
-    private final long blockId; // The unique ID of the block that contains the record the leaf entry points to.
+    // The block and the slot of the data file that contain the record the leaf entry points to, see DataBlock.toLocator.
+    private final long recordLocator;
+    // (point[DIMENSIONS], recordLocator), since the bounding box of a record is degenerate
+    public static final int BYTES = Double.BYTES * FileHandler.DIMENSIONS + Long.BYTES;
 
-    public LeafEntry(BoundingBox boundingBox, long recordId, long blockId) {
+    public LeafEntry(BoundingBox boundingBox, long recordLocator) {
         super(boundingBox, -1); //  A value of -1 is used since leaf entries have no child node.
-        this.recordId = recordId;
-        this.blockId = blockId;
+        this.recordLocator = recordLocator;
     }
 
-    public long getRecordId() {
-        return recordId;
+    public long getRecordLocator() {
+        return recordLocator;
     }
 
     public long getBlockId() {
-        return blockId;
+        return DataBlock.blockIdOf(recordLocator);
     }
 
     public String toString()
     {
-        return "LeafEntry(" + super.toString() + ", " + "recordId(" + recordId + "), " + "blockId(" + blockId + "))";
+        return "LeafEntry(" + super.toString() + ", " + "blockId(" + getBlockId() + "), " +
+                "slot(" + DataBlock.slotOf(recordLocator) + "))";
     }
 
     @Override
-    public byte[] toBytes()
+    public int getByteSize()
     {
-        byte[] leafEntryAsBytes = super.toBytes();
-        int destPos = BoundingBox.BYTES + Long.BYTES;
+        return BYTES;
+    }
 
-        System.arraycopy(longToBytes(recordId), 0, leafEntryAsBytes, destPos, Long.BYTES);
-        destPos += Long.BYTES;
-        System.arraycopy(longToBytes(blockId), 0, leafEntryAsBytes, destPos, Long.BYTES);
+    @Override
+    public int writeTo(ByteBuffer buffer, int offset)
+    {
+        // The bounding box of a record is a single point, so only its lower left point is written
+        for (int i = 0; i < FileHandler.DIMENSIONS; ++i)
+        {
+            buffer.putDouble(offset, boundingBox.getLowerLeftValue(i));
+            offset += Double.BYTES;
+        }
+        buffer.putLong(offset, recordLocator);
 
-        return leafEntryAsBytes;
+        return offset + Long.BYTES;
     }
 
-
-    public static LeafEntry fromBytes(byte[] bytes)
+    /**
+     * Reads a leaf entry serialised by writeTo, without changing the position of the buffer.
+     * @param buffer to read from.
+     * @param offset of the buffer where the leaf entry starts.
+     * @return the deserialised leaf entry.
+     */
+    public static LeafEntry readFrom(ByteBuffer buffer, int offset)
     {
-        byte[] boundingBoxAsBytes = new byte[BoundingBox.BYTES],
-                childNodeIdAsBytes = new byte[Long.BYTES],
-                recordIdAsBytes = new byte[Long.BYTES],
-                blockIdAsBytes = new byte[Long.BYTES];
-        int srcPos = 0;
-
-        System.arraycopy(bytes, srcPos, boundingBoxAsBytes, 0, boundingBoxAsBytes.length);
-        srcPos += boundingBoxAsBytes.length;
-        System.arraycopy(bytes, srcPos, childNodeIdAsBytes, 0, childNodeIdAsBytes.length);
-        srcPos += childNodeIdAsBytes.length;
-        System.arraycopy(bytes, srcPos, recordIdAsBytes, 0, recordIdAsBytes.length);
-        srcPos += recordIdAsBytes.length;
-        System.arraycopy(bytes, srcPos, blockIdAsBytes, 0, blockIdAsBytes.length);
+        double[] point = new double[FileHandler.DIMENSIONS];
+        for (int i = 0; i < point.length; ++i)
+        {
+            point[i] = buffer.getDouble(offset);
+            offset += Double.BYTES;
+        }
+        long recordLocator = buffer.getLong(offset);
 
-        return new LeafEntry(
-                    BoundingBox.fromBytes(boundingBoxAsBytes),
-                    bytesToLong(recordIdAsBytes),
-                    bytesToLong(blockIdAsBytes)
-            );
+        return new LeafEntry(new BoundingBox(point, point.clone()), recordLocator);
     }
 }
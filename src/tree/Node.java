@@ -2,19 +2,18 @@ package tree;
 
 import tree.comparators.LowerValueComparator;
 import tree.comparators.UpperValueComparator;
-import utils.ByteConvertible;
 import utils.FileHandler;
 import utils.IndexMetaData;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 
-public class Node extends ByteConvertible {
-    private static final double MIN_LOAD_FACTOR = 0.4;
-    private static final int MIN_ENTRIES = (int)Math.floor(IndexMetaData.MAX_ENTRIES_IN_NODE * MIN_LOAD_FACTOR);
-    // (NodeId, entriesSize, isLeafNode, entries, level)
-    public static final int BYTES = Long.BYTES + Integer.BYTES + 1 + (IndexMetaData.MAX_ENTRIES_IN_NODE + 1) * Entry.BYTES + Integer.BYTES;
+public class Node {
+    public static final double MIN_LOAD_FACTOR = 0.4;
+    // (NodeId, level, entriesSize), followed by the entries. The level tells whether they use the leaf or internal layout.
+    public static final int HEADER_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES;
 
     private long nodeId; // The unique ID assigned to the node.
     private ArrayList<Entry> entries; // A list containing all the entries the node includes.
@@ -65,7 +64,7 @@ public class Node extends ByteConvertible {
     }
 
     public boolean isOverflowed() {
-        return entries.size() > IndexMetaData.MAX_ENTRIES_IN_NODE;
+        return entries.size() > getMaxEntriesLimit(level);
     }
 
     public long getId() {
@@ -77,11 +76,24 @@ public class Node extends ByteConvertible {
     }
 
     /**
-     * Returns the maximum amount of entries a node can include.
+     * Returns the maximum amount of entries a node can include. Leaf entries are smaller than internal entries,
+     * so leaf nodes can include more of them.
+     * @param level the tree level of the node.
      * @return an integer representing the maximum amount of entries that can be stored in a node.
      */
-    public static int getMaxEntriesLimit() {
-        return IndexMetaData.MAX_ENTRIES_IN_NODE;
+    public static int getMaxEntriesLimit(int level) {
+        return level == RStarTree.getLeafLevel() ?
+                IndexMetaData.getMaxLeafEntries() : IndexMetaData.getMaxInternalEntries();
+    }
+
+    /**
+     * Returns the minimum amount of entries a non-root node must include.
+     * @param level the tree level of the node.
+     * @return an integer representing the minimum amount of entries that must be stored in a node.
+     */
+    public static int getMinEntriesLimit(int level) {
+        return level == RStarTree.getLeafLevel() ?
+                IndexMetaData.getMinLeafEntries() : IndexMetaData.getMinInternalEntries();
     }
 
     /**
@@ -237,11 +249,12 @@ public class Node extends ByteConvertible {
             sortedValueLists.add(sortedByLowerValue);
             sortedValueLists.add(sortedByUpperValue);
 
+            int minEntries = getMinEntriesLimit(level);
             AxisDistributions axisDistributions = new AxisDistributions();
             for (ArrayList<Entry> sortedValueList : sortedValueLists) {
-                for (int k = 0; k < IndexMetaData.MAX_ENTRIES_IN_NODE - 2 * MIN_ENTRIES + 2; k++) {
-                    List<Entry> groupA = sortedValueList.subList(0, MIN_ENTRIES - 1 + k + 1);
-                    List<Entry> groupB = sortedValueList.subList(MIN_ENTRIES - 1 + k + 1, sortedValueList.size());
+                for (int k = 0; k < getMaxEntriesLimit(level) - 2 * minEntries + 2; k++) {
+                    List<Entry> groupA = sortedValueList.subList(0, minEntries - 1 + k + 1);
+                    List<Entry> groupB = sortedValueList.subList(minEntries - 1 + k + 1, sortedValueList.size());
                     Distribution distribution = new Distribution(new ArrayList<>(groupA), new ArrayList<>(groupB));
                     axisDistributions.addDistribution(distribution, distribution.getDistributionMargin());
                 }
@@ -298,42 +311,66 @@ public class Node extends ByteConvertible {
 
     }
 
-    @Override
-    public byte[] toBytes()
+    /**
+     * Returns the size of a serialised node, which is always a whole index page.
+     */
+    public int getByteSize()
     {
-        byte[] nodeAsBytes = new byte[BYTES],
-                entriesAsBytes = entriesToBytes(entries);
-        int destPos = 0;
-
-        // Node Id
-        System.arraycopy(longToBytes(nodeId), 0, nodeAsBytes, destPos, Long.BYTES);
-        destPos += Long.BYTES;
-        // Node entries
-        System.arraycopy(entriesAsBytes, 0, nodeAsBytes, destPos, entriesAsBytes.length);
-        destPos += entriesAsBytes.length;
-        // Level of the node
-        System.arraycopy(intToBytes(level), 0, nodeAsBytes, destPos, Integer.BYTES);
-
-        return nodeAsBytes;
+        return IndexMetaData.getPageSize();
     }
 
-    public static Node fromBytes(byte[] bytes)
+    public int writeTo(ByteBuffer buffer, int offset)
     {
-        byte[] idAsBytes = new byte[Long.BYTES],
-                entriesAsBytes = new byte[Integer.BYTES + 1 + (IndexMetaData.MAX_ENTRIES_IN_NODE + 1) * Entry.BYTES],
-                levelAsBytes = new byte[Integer.BYTES];
-        int srcPos = 0;
-
-        System.arraycopy(bytes, srcPos, idAsBytes, 0, idAsBytes.length);
-        srcPos += idAsBytes.length;
-        System.arraycopy(bytes, srcPos, entriesAsBytes, 0, entriesAsBytes.length);
-        srcPos += entriesAsBytes.length;
-        System.arraycopy(bytes, srcPos, levelAsBytes, 0, levelAsBytes.length);
-
-        long id = bytesToLong(idAsBytes);
-        ArrayList<Entry> entries = entriesFromBytes(entriesAsBytes);
-        int level = bytesToInt(levelAsBytes);
-
-        return entries == null ? new Node(level, id) : new Node(entries, level, id);
+        if (entries.size() > getMaxEntriesLimit(level) + 1) {
+            throw new IllegalStateException("Node " + nodeId + " has more entries than fit in an index page");
+        }
+        int pageEnd = offset + getByteSize();
+
+        buffer.putLong(offset, nodeId);
+        offset += Long.BYTES;
+        buffer.putInt(offset, level);
+        offset += Integer.BYTES;
+        buffer.putInt(offset, entries.size());
+        offset += Integer.BYTES;
+        for (Entry entry : entries)
+        {
+            offset = entry.writeTo(buffer, offset);
+        }
+
+        return pageEnd;
+    }
+
+    /**
+     * Reads a node serialised by writeTo, without changing the position of the buffer.
+     * @param buffer to read from, holding a whole index page.
+     * @param offset of the buffer where the page starts.
+     * @return the deserialised node.
+     */
+    public static Node readFrom(ByteBuffer buffer, int offset)
+    {
+        long id = buffer.getLong(offset);
+        offset += Long.BYTES;
+        int level = buffer.getInt(offset);
+        offset += Integer.BYTES;
+        int size = buffer.getInt(offset);
+        offset += Integer.BYTES;
+        if (size == 0) {
+            return new Node(level, id);
+        }
+
+        boolean isLeaf = level == RStarTree.getLeafLevel();
+        ArrayList<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i)
+        {
+            if (isLeaf) {
+                entries.add(LeafEntry.readFrom(buffer, offset));
+                offset += LeafEntry.BYTES;
+            } else {
+                entries.add(Entry.readFrom(buffer, offset));
+                offset += Entry.BYTES;
+            }
+        }
+
+        return new Node(entries, level, id);
     }
 }
@@ -0,0 +1,141 @@
+package tree;
+
+import utils.FileHandler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of a node over the bytes of its index page, in the layout written by Node.writeTo.
+ * Queries use it to filter the entries of a node by reading their coordinates straight from the page, so that only
+ * the entries they keep are ever materialised. A view must not be used after the node it belongs to is unpinned.
+ */
+public class NodeView {
+    private final ByteBuffer page;
+    private final long nodeId;
+    private final int level;
+    private final int size;
+    private final int entryBytes;
+    // Reused for the bounding box of the entry being examined, so that filtering entries doesn't allocate.
+    private final double[] lowerLeftPoint;
+    private final double[] upperRightPoint;
+
+    /**
+     * @param page a buffer holding a whole serialised node, starting at offset 0.
+     */
+    public NodeView(ByteBuffer page) {
+        this.page = page;
+        nodeId = page.getLong(0);
+        level = page.getInt(Long.BYTES);
+        size = page.getInt(Long.BYTES + Integer.BYTES);
+        entryBytes = isLeaf() ? LeafEntry.BYTES : Entry.BYTES;
+        lowerLeftPoint = new double[FileHandler.DIMENSIONS];
+        upperRightPoint = new double[FileHandler.DIMENSIONS];
+    }
+
+    public long getId() {
+        return nodeId;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isLeaf() {
+        return level == RStarTree.getLeafLevel();
+    }
+
+    /**
+     * @return the number of entries of the node.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int entryOffset(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Node " + nodeId + " has no entry " + i);
+        }
+        return Node.HEADER_BYTES + i * entryBytes;
+    }
+
+    /**
+     * Reads the bounding box of the i-th entry into lowerLeftPoint and upperRightPoint.
+     */
+    private void readBoundingBox(int i) {
+        int offset = entryOffset(i);
+        for (int d = 0; d < lowerLeftPoint.length; d++) {
+            lowerLeftPoint[d] = page.getDouble(offset + d * Double.BYTES);
+        }
+        if (isLeaf()) {
+            // Leaf entries only store their point
+            System.arraycopy(lowerLeftPoint, 0, upperRightPoint, 0, upperRightPoint.length);
+            return;
+        }
+        for (int d = 0; d < upperRightPoint.length; d++) {
+            upperRightPoint[d] = page.getDouble(offset + (lowerLeftPoint.length + d) * Double.BYTES);
+        }
+    }
+
+    /**
+     * @return the min distance between the bounding box of the i-th entry and the given point.
+     */
+    public double minDistance(int i, double[] targetPoint) {
+        readBoundingBox(i);
+        return BoundingBox.calculateMinPointDistance(lowerLeftPoint, upperRightPoint, targetPoint);
+    }
+
+    /**
+     * @return the min-max distance between the bounding box of the i-th entry and the given point.
+     */
+    public double minMaxDistance(int i, double[] targetPoint) {
+        readBoundingBox(i);
+        return BoundingBox.calculateMinMaxPointDistance(lowerLeftPoint, upperRightPoint, targetPoint);
+    }
+
+    /**
+     * @return whether the bounding box of the i-th entry and the given bounding box have at least one common point.
+     */
+    public boolean intersects(int i, BoundingBox boundingBox) {
+        readBoundingBox(i);
+        return BoundingBox.intersects(lowerLeftPoint, upperRightPoint, boundingBox);
+    }
+
+    /**
+     * @return the id of the child node of the i-th entry of an internal node.
+     */
+    public long childId(int i) {
+        if (isLeaf()) {
+            throw new IllegalStateException("Leaf node " + nodeId + " has no child nodes");
+        }
+        return page.getLong(entryOffset(i) + BoundingBox.BYTES);
+    }
+
+    /**
+     * @return a new array holding the point of the i-th entry of a leaf node.
+     */
+    public double[] point(int i) {
+        if (!isLeaf()) {
+            throw new IllegalStateException("Internal node " + nodeId + " has no points");
+        }
+        readBoundingBox(i);
+        return lowerLeftPoint.clone();
+    }
+
+    /**
+     * @return the locator of the record of the i-th entry of a leaf node, see DataBlock.toLocator.
+     */
+    public long recordLocator(int i) {
+        if (!isLeaf()) {
+            throw new IllegalStateException("Internal node " + nodeId + " has no records");
+        }
+        return page.getLong(entryOffset(i) + LeafEntry.BYTES - Long.BYTES);
+    }
+
+    /**
+     * Materialises the i-th entry.
+     * @return a LeafEntry for leaf nodes, an Entry otherwise.
+     */
+    public Entry getEntry(int i) {
+        return isLeaf() ? LeafEntry.readFrom(page, entryOffset(i)) : Entry.readFrom(page, entryOffset(i));
+    }
+}
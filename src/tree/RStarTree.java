@@ -3,13 +3,19 @@ package tree;
 import queries.LocationQueryResult;
 import queries.TreeNNQuery;
 import queries.TreeRangeQuery;
+import tree.bulkload.BulkLoader;
+import tree.bulkload.HilbertCurve;
 import tree.comparators.AreaEnlargementComparator;
 import tree.comparators.BBCenterDistanceComparator;
 import tree.comparators.OverlapEnlargementComparator;
+import utils.BufferPool;
+import utils.DataBlock;
 import utils.DataMetaData;
 import utils.FileHandler;
 import utils.IndexMetaData;
+import utils.IngestPipeline;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -17,12 +23,23 @@ import java.util.*;
  */
 public class RStarTree {
     private static final double REINSERT_P_PARAMETER = 0.3;
-    private static final int REINSERT_AMOUNT = (int) Math.round(REINSERT_P_PARAMETER * Node.getMaxEntriesLimit());
     private static final int LEAF_LEVEL = 0;
+    // Pending entries are all pushed down when they are more than this many full insertion buffers
+    private static final int MAX_PENDING_BUFFERS = 16;
+    // Entries of least area enlargement whose overlap enlargement is calculated when choosing a subtree
+    private static final int CHOOSE_SUBTREE_CANDIDATES = 32;
 
     private int rootLevel;
+    private IngestPipeline ingestPipeline; // The pipeline that built the tree, null if the tree was opened
     boolean[] levelOverflowCalled;
     Queue<RIEntry> reInsertQueue;
+    private int insertionBufferCapacity = 0; // Entries an insertion buffer holds, 0 if records are inserted directly
+    // Internal node id -> leaf entries waiting to be pushed down into the subtree of the node
+    private final HashMap<Long, ArrayList<LeafEntry>> insertionBuffers = new HashMap<>();
+    private int numberOfPendingEntries = 0;
+    // Pending leaf entries removed from an overflowed leaf, which split the leaf they overflow instead of being reinserted
+    private final Set<LeafEntry> reinsertedEntries = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean structureChanged; // Whether an overflow was treated since the path of a batch was last checked
 
     private class RIEntry {
         private final Entry entry;
@@ -43,32 +60,129 @@ public class RStarTree {
     }
 
 
+    /**
+     * Builds a new tree from the osm file, using the default data file block size and index page size.
+     */
     public RStarTree() {
-        FileHandler.init();
-        FileHandler.loadDatafile();
+        this(DataMetaData.DEFAULT_BLOCK_SIZE, IndexMetaData.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Builds a new tree from the osm file. Parsing the file, encoding and writing the data file blocks and inserting
+     * the records into the tree run concurrently in an IngestPipeline.
+     * @param dataBlockSize the size of the data file blocks in bytes.
+     * @param indexPageSize the size of the index file pages in bytes, from which the node fanout is derived.
+     */
+    public RStarTree(int dataBlockSize, int indexPageSize) {
+        this(dataBlockSize, indexPageSize, 0);
+    }
+
+    /**
+     * Builds a new tree from the osm file, inserting the records through insertion buffers, see
+     * setInsertionBufferCapacity.
+     * @param dataBlockSize the size of the data file blocks in bytes.
+     * @param indexPageSize the size of the index file pages in bytes, from which the node fanout is derived.
+     * @param insertionBufferCapacity the number of entries an insertion buffer holds, or 0 to insert every record
+     *                                right away.
+     */
+    public RStarTree(int dataBlockSize, int indexPageSize, int insertionBufferCapacity) {
+        setInsertionBufferCapacity(insertionBufferCapacity);
+        BufferPool.clear();
+        FileHandler.init(dataBlockSize, indexPageSize);
 
         rootLevel = 0;
 
-        // Create root node
-        long rootNodeId = FileHandler.getRootNodeId(); //TODO: Get root Node ID from File Handler. CHECK!
+        // Create an empty leaf as the root, with the root node id FileHandler.init reserved. The pool caches it
+        // and records it as the root in the index meta data.
+        long rootNodeId = FileHandler.getRootNodeId();
         Node rootNode = new Node(rootLevel, rootNodeId);
-        FileHandler.setRootNode(rootNode); // TODO: Save root node using File Handler. CHECK!
-
-        long numBlocks = DataMetaData.getNumberOfBlocks();
+        BufferPool.setRootNode(rootNode);
+        // An empty tree is committed, so that a crash before the first block is indexed still leaves a valid index
+        BufferPool.flush();
+        FileHandler.commit();
+
+        ingestPipeline = new IngestPipeline(FileHandler.OSM_FILE_PATH, new IngestPipeline.RecordIndexer() {
+            @Override
+            public void index(Record record, long recordLocator) {
+                insertRecord(record, recordLocator);
+            }
 
+            @Override
+            public boolean isIndexed() {
+                return numberOfPendingEntries == 0;
+            }
 
-        for (int i = 1; i < numBlocks; i++) {
-            ArrayList<Record> blockRecords = FileHandler.getDataBlock(i);
-            for (Record record : blockRecords) {
-                insertRecord(record, i);
+            @Override
+            public void completeIndexing() {
+                flushInsertionBuffers();
             }
-        }
+        });
+        ingestPipeline.run();
+    }
+
+    /**
+     * Constructor used for trees whose index is already stored in the index file.
+     * @param path the directory containing the data and index files.
+     * @throws IOException if the files are missing or don't contain a valid tree.
+     */
+    private RStarTree(String path) throws IOException {
+        BufferPool.clear();
+        FileHandler.open(path);
+
+        rootLevel = IndexMetaData.getRootLevel();
+    }
+
+    /**
+     * Opens the tree stored in the data and index files of the given directory, without rebuilding it.
+     * @param path the directory containing the data and index files.
+     * @return the stored tree, ready to serve queries and insertions.
+     * @throws IOException if the files are missing or don't contain a valid tree.
+     */
+    public static RStarTree open(String path) throws IOException {
+        return new RStarTree(path);
+    }
+
+    /**
+     * Builds a new tree from the osm file bottom-up. The records are written to the data file first and the index is
+     * then packed level by level by the given loader, which is much faster than inserting the records one by one and
+     * fills the nodes fuller.
+     * @param dataBlockSize the size of the data file blocks in bytes.
+     * @param indexPageSize the size of the index file pages in bytes, from which the node fanout is derived.
+     * @param loader the bulk loader that orders the entries of every level into nodes.
+     * @return the new tree, ready to serve queries and insertions.
+     * @throws IOException if the temporary files of the loader or the new files can't be written or read.
+     */
+    public static RStarTree bulkLoad(int dataBlockSize, int indexPageSize, BulkLoader loader) throws IOException {
+        BufferPool.clear();
+        FileHandler.init(dataBlockSize, indexPageSize);
+        FileHandler.loadDatafile();
+        loader.load();
+        FileHandler.checkpoint();
+        return open(FileHandler.getPath("").toString());
     }
 
     public static int getLeafLevel() {
         return LEAF_LEVEL;
     }
 
+    /**
+     * Returns the amount of entries removed from an overflowed node to be reinserted, which depends on the fanout
+     * of the nodes of its level.
+     * @param level the tree level of the overflowed node.
+     * @return an integer representing the amount of entries to be reinserted.
+     */
+    private static int getReinsertAmount(int level) {
+        return (int) Math.round(REINSERT_P_PARAMETER * Node.getMaxEntriesLimit(level));
+    }
+
+    /**
+     * @return the number of records and the throughput of every stage of the pipeline that built the tree, or null
+     * if the tree was opened from existing files.
+     */
+    public String getIngestStatistics() {
+        return ingestPipeline == null ? null : ingestPipeline.getStatistics();
+    }
+
     public int getTreeHeight() {
         return rootLevel;
     }
@@ -91,9 +205,17 @@ public class RStarTree {
 
         if (currentNode.getLevel() - 1 == targetLevel) {
             // The childpointers in currentNode point to nodes located at the target level,
-            // so the minimum overlap cost is calculated
-            return Collections.min(candidateEntries,
-                    new OverlapEnlargementComparator(candidateEntries, newEntry));
+            // so the minimum overlap cost is calculated. As the R* tree paper suggests for large nodes, only the
+            // entries of least area enlargement are candidates, so the nearly minimum overlap cost is found without
+            // comparing every pair of entries.
+            List<Entry> overlapCandidates = candidateEntries;
+            if (candidateEntries.size() > CHOOSE_SUBTREE_CANDIDATES) {
+                ArrayList<Entry> sortedEntries = new ArrayList<>(candidateEntries);
+                sortedEntries.sort(new AreaEnlargementComparator(candidateEntries, newEntry));
+                overlapCandidates = sortedEntries.subList(0, CHOOSE_SUBTREE_CANDIDATES);
+            }
+            return Collections.min(overlapCandidates,
+                    new OverlapEnlargementComparator(overlapCandidates, candidateEntries, newEntry));
         } else {
             // The childpointers in currentNode do not point to nodes located at the target level,
             // so the minimum area cost is calculated.
@@ -105,15 +227,28 @@ public class RStarTree {
     /**
      * Used to insert a new record into the tree structure.
      * @param newRecord the new record that is to be inserted into the tree structure.
-     * @param blockId the unique ID of the datafile block where the new record is saved.
+     * @param recordLocator the block and the slot of the datafile where the new record is saved.
      */
-    private void insertRecord(Record newRecord, int blockId) {
+    private void insertRecord(Record newRecord, long recordLocator) {
         // R* Tree paper reference: ID1 - InsertData
         // Create a new LeafEntry for the record
 
         BoundingBox newBoundingBox = new BoundingBox(newRecord.getCoordinates(), newRecord.getCoordinates());
-        LeafEntry leafEntry = new LeafEntry(newBoundingBox, newRecord.getId(), blockId);
+        LeafEntry leafEntry = new LeafEntry(newBoundingBox, recordLocator);
 
+        if (insertionBufferCapacity > 0 && rootLevel > LEAF_LEVEL) {
+            bufferLeafEntry(leafEntry);
+        } else {
+            insertLeafEntry(leafEntry);
+        }
+    }
+
+    /**
+     * Inserts the leaf entry of a record, starting from the root, and reinserts the entries removed from the
+     * overflowed nodes.
+     * @param leafEntry the leaf entry of the record.
+     */
+    private void insertLeafEntry(LeafEntry leafEntry) {
         // Reset the level overflow call status HashMap.
         // (A boolean array indicating whether Overflow Treatment has been called
         // for a specific level of the RStar Tree during the insertion of a new
@@ -133,6 +268,265 @@ public class RStarTree {
         }
     }
 
+    /**
+     * Inserts a batch of records, such as the changes of an area. The records are sorted by the Hilbert key of their
+     * coordinates, appended to the data file in that order, so that neighbouring records share data file blocks,
+     * and inserted in that order too. Consecutive records then mostly fall in the same leaf, so the path to the
+     * parent of the last leaf stays pinned and is reused for every record inside the bounding box of one of its
+     * leaves, and every node is written about once for the whole batch. With insertion buffers, the batch goes
+     * through the buffers, which are then flushed, so that the batch is committed when the method returns.
+     * @param records the records to be inserted.
+     */
+    public void insertAll(Iterable<Record> records) {
+        ArrayList<Record> batch = new ArrayList<>();
+        records.forEach(batch::add);
+        if (batch.isEmpty()) {
+            return;
+        }
+        sortByHilbertKey(batch);
+
+        // Write the records to the data file in blocks, keeping their order
+        ArrayList<LeafEntry> leafEntries = new ArrayList<>(batch.size());
+        DataBlock block = new DataBlock(DataMetaData.getBlockSize());
+        int firstRecord = 0; // The index of the first record of the block in the batch
+        for (int i = 0; i < batch.size(); i++) {
+            if (!block.hasSpaceFor(batch.get(i).getByteSize()) && block.getNumberOfSlots() > 0) {
+                addLeafEntries(batch.subList(firstRecord, i), FileHandler.appendDataBlock(block), leafEntries);
+                block = new DataBlock(DataMetaData.getBlockSize());
+                firstRecord = i;
+            }
+            block.addRecord(batch.get(i));
+        }
+        addLeafEntries(batch.subList(firstRecord, batch.size()), FileHandler.appendDataBlock(block), leafEntries);
+
+        if (insertionBufferCapacity > 0 && rootLevel > LEAF_LEVEL) {
+            for (LeafEntry leafEntry : leafEntries) {
+                bufferLeafEntry(leafEntry);
+            }
+        } else {
+            insertInOrder(leafEntries);
+        }
+
+        flushInsertionBuffers();
+        BufferPool.flush();
+        FileHandler.commit();
+    }
+
+    /**
+     * Sorts records by the Hilbert key of their coordinates, on a curve that fills their bounding box.
+     * @param records the records.
+     */
+    private static void sortByHilbertKey(ArrayList<Record> records) {
+        double[] lowerLeftPoint = records.get(0).getCoordinates().clone();
+        double[] upperRightPoint = records.get(0).getCoordinates().clone();
+        for (Record record : records) {
+            for (int d = 0; d < FileHandler.DIMENSIONS; d++) {
+                lowerLeftPoint[d] = Math.min(lowerLeftPoint[d], record.getCoordinates()[d]);
+                upperRightPoint[d] = Math.max(upperRightPoint[d], record.getCoordinates()[d]);
+            }
+        }
+        HilbertCurve curve = new HilbertCurve(lowerLeftPoint, upperRightPoint);
+        IdentityHashMap<Record, Long> keys = new IdentityHashMap<>();
+        for (Record record : records) {
+            keys.put(record, curve.key(record.getCoordinates()));
+        }
+        records.sort(Comparator.comparingLong(keys::get));
+    }
+
+    /**
+     * Adds the leaf entries of the records of a data file block to a list.
+     * @param blockRecords the records of the block, in the order of their slots.
+     * @param blockId the id of the block in the data file.
+     * @param leafEntries the list the leaf entries are added to.
+     */
+    private static void addLeafEntries(List<Record> blockRecords, long blockId, ArrayList<LeafEntry> leafEntries) {
+        for (int slot = 0; slot < blockRecords.size(); slot++) {
+            double[] coordinates = blockRecords.get(slot).getCoordinates();
+            leafEntries.add(new LeafEntry(new BoundingBox(coordinates, coordinates), DataBlock.toLocator(blockId, slot)));
+        }
+    }
+
+    /**
+     * Inserts leaf entries in the given order, keeping the path to the parent of the last leaf pinned. An entry
+     * inside the bounding box of a leaf of that parent is inserted into the smallest such leaf without descending
+     * from the root, which is the leaf the R* tree chooses too, and the bounding boxes of the path are adjusted only
+     * when an overflow must be treated or the path is left.
+     * @param leafEntries the leaf entries.
+     */
+    private void insertInOrder(List<LeafEntry> leafEntries) {
+        ArrayList<Node> path = new ArrayList<>();
+        structureChanged = false;
+        for (LeafEntry leafEntry : leafEntries) {
+            if (rootLevel == LEAF_LEVEL) {
+                insertLeafEntry(leafEntry);
+                continue;
+            }
+
+            Entry leaf = null;
+            if (!path.isEmpty() && (!structureChanged || isPathValid(path))) {
+                leaf = containingLeaf(leafEntry, path.get(path.size() - 1));
+            }
+            if (leaf == null) {
+                releasePath(path);
+                descend(leafEntry, path);
+                leaf = chooseLeaf(leafEntry, path.get(path.size() - 1));
+            }
+            structureChanged = false;
+
+            Node node = path.get(path.size() - 1);
+            levelOverflowCalled = new boolean[getTreeLevels()];
+            reInsertQueue = new LinkedList<>();
+            insert(leafEntry, node, leaf, LEAF_LEVEL);
+
+            if (node.isOverflowed() || !reInsertQueue.isEmpty()) {
+                adjustPath(path);
+                RIEntry riEntry = reInsertQueue.poll();
+                while (riEntry != null) {
+                    insert(riEntry.getEntry(), null, null, riEntry.getInsertionLevel());
+                    riEntry = reInsertQueue.poll();
+                }
+                structureChanged = true;
+            }
+        }
+        releasePath(path);
+    }
+
+    /**
+     * Pins the nodes from the root to the node whose children are leaves, choosing every subtree for a leaf entry.
+     * @param leafEntry the leaf entry.
+     * @param path the empty list the nodes are added to.
+     */
+    private void descend(LeafEntry leafEntry, ArrayList<Node> path) {
+        Node node = BufferPool.fetchNode(FileHandler.getRootNodeId());
+        path.add(node);
+        while (node.getLevel() > LEAF_LEVEL + 1) {
+            node = BufferPool.fetchNode(chooseSubTree(leafEntry, node, LEAF_LEVEL).getChildNodeId());
+            path.add(node);
+        }
+    }
+
+    /**
+     * Adjusts the bounding boxes of a pinned path, if it is still part of the tree, and unpins its nodes.
+     * @param path the nodes from the root, which is emptied.
+     */
+    private void releasePath(ArrayList<Node> path) {
+        if (path.isEmpty()) {
+            return;
+        }
+        // The bounding boxes were adjusted before any overflow that could move a node of the path
+        if (!structureChanged || isPathValid(path)) {
+            adjustPath(path);
+        }
+        for (int i = path.size() - 1; i >= 0; i--) {
+            BufferPool.unpinNode(path.get(i), true);
+        }
+        path.clear();
+    }
+
+    /**
+     * Removes a record from the tree, so that queries no longer return it. As in the CondenseTree step of the
+     * R-tree, every node on the path of the record left with fewer than its minimum entries is removed and its
+     * entries are reinserted at their level, and a root left with a single child is replaced by the child. The pages
+     * of the removed nodes are freed and reused by later insertions. The record itself stays in its data file block
+     * and in the record id index.
+     * @param recordId the id of the record.
+     * @return whether the record was in the tree.
+     */
+    public boolean delete(long recordId) {
+        flushInsertionBuffers();
+        long recordLocator = FileHandler.getRecordLocator(recordId);
+        Record record = recordLocator == 0 ? null : FileHandler.getRecord(recordLocator);
+        if (record == null || record.getId() != recordId) {
+            return false;
+        }
+
+        BoundingBox point = new BoundingBox(record.getCoordinates(), record.getCoordinates());
+        ArrayList<Node> path = new ArrayList<>();
+        if (!removeLeafEntry(FileHandler.getRootNodeId(), point, recordLocator, path)) {
+            return false;
+        }
+        condenseTree(path);
+        BufferPool.flush();
+        FileHandler.commit();
+        return true;
+    }
+
+    /**
+     * Searches the subtree of a node for the leaf entry of a record and removes it from its leaf.
+     * @param nodeId the id of the node.
+     * @param point the bounding box of the record.
+     * @param recordLocator the block and the slot of the datafile where the record is saved.
+     * @param path the nodes from the root to the parent of the node, which are pinned. If the entry is found, the
+     *             nodes down to its leaf are added and stay pinned.
+     * @return whether the entry was found.
+     */
+    private boolean removeLeafEntry(long nodeId, BoundingBox point, long recordLocator, ArrayList<Node> path) {
+        Node node = BufferPool.fetchNode(nodeId);
+        path.add(node);
+        for (Entry entry : node.getEntries()) {
+            if (node.getLevel() == LEAF_LEVEL) {
+                if (((LeafEntry) entry).getRecordLocator() == recordLocator) {
+                    node.getEntries().remove(entry);
+                    return true;
+                }
+            } else if (entry.getBoundingBox().intersects(point)
+                    && removeLeafEntry(entry.getChildNodeId(), point, recordLocator, path)) {
+                return true;
+            }
+        }
+        path.remove(path.size() - 1);
+        BufferPool.unpinNode(node, false);
+        return false;
+    }
+
+    /**
+     * Removes the underfull nodes of the path of a removed leaf entry and reinserts their entries, adjusts the
+     * bounding boxes of the rest of the path and shortens the tree while its root has a single child.
+     * @param path the nodes from the root to the leaf of the removed entry, which are pinned and are unpinned.
+     */
+    private void condenseTree(ArrayList<Node> path) {
+        ArrayList<RIEntry> orphanedEntries = new ArrayList<>();
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node node = path.get(i);
+            Node parentNode = path.get(i - 1);
+            Entry parentEntry = findEntry(parentNode, node.getId());
+            if (node.getEntries().size() < Node.getMinEntriesLimit(node.getLevel())) {
+                parentNode.getEntries().remove(parentEntry);
+                for (Entry entry : node.getEntries()) {
+                    orphanedEntries.add(new RIEntry(entry, node.getLevel()));
+                }
+                BufferPool.unpinNode(node, false);
+                BufferPool.freeNode(node.getId());
+            } else {
+                parentEntry.adjustBoundingBox(node);
+                BufferPool.unpinNode(node, true);
+            }
+        }
+        BufferPool.unpinNode(path.get(0), true);
+
+        for (RIEntry orphanedEntry : orphanedEntries) {
+            levelOverflowCalled = new boolean[getTreeLevels()];
+            reInsertQueue = new LinkedList<>();
+            insert(orphanedEntry.getEntry(), null, null, orphanedEntry.getInsertionLevel());
+            RIEntry riEntry = reInsertQueue.poll();
+            while (riEntry != null) {
+                insert(riEntry.getEntry(), null, null, riEntry.getInsertionLevel());
+                riEntry = reInsertQueue.poll();
+            }
+        }
+
+        Node rootNode = BufferPool.fetchNode(FileHandler.getRootNodeId());
+        while (rootNode.getLevel() > LEAF_LEVEL && rootNode.getEntries().size() == 1) {
+            long childNodeId = rootNode.getEntries().get(0).getChildNodeId();
+            BufferPool.unpinNode(rootNode, false);
+            BufferPool.freeNode(rootNode.getId());
+            rootNode = BufferPool.fetchNode(childNodeId);
+            FileHandler.setRoot(rootNode);
+            rootLevel = rootNode.getLevel();
+        }
+        BufferPool.unpinNode(rootNode, false);
+    }
+
     /**
      * Recursive method used to perform the insertion of a new entry into the tree structure.
      * @param newEntry the entry that is to be inserted into the tree structure.
@@ -145,9 +539,9 @@ public class RStarTree {
 
         if (parentEntry == null) {
             // The insertion begins from the root node.
-            currentNode = FileHandler.getRootNode();
+            currentNode = BufferPool.fetchNode(FileHandler.getRootNodeId());
         } else {
-            currentNode = FileHandler.getNode(parentEntry.getChildNodeId());
+            currentNode = BufferPool.fetchNode(parentEntry.getChildNodeId());
         }
 
         if (currentNode.getLevel() == targetLevel) {
@@ -164,13 +558,13 @@ public class RStarTree {
             overflowTreatment(currentNode, parentNode);
         }
 
-        // Update tree structure
-        FileHandler.updateNode(currentNode);
-
+        // Update tree structure. The parent node is still pinned by the caller, which marks it as modified
+        // when it releases it.
         if (parentEntry != null) {
             parentEntry.adjustBoundingBox(currentNode);
-            FileHandler.updateNode(parentNode);
         }
+
+        BufferPool.unpinNode(currentNode, true);
     }
 
     /**
@@ -181,6 +575,7 @@ public class RStarTree {
      */
     private void overflowTreatment(Node overflowedNode, Node parentNode) {
         int overflowedNodeLevel = overflowedNode.getLevel();
+        structureChanged = true;
 
         if (overflowedNodeLevel != rootLevel && !levelOverflowCalled[overflowedNodeLevel]) {
             // If the overflowed Node's level is not the root level and this is the first call
@@ -194,7 +589,7 @@ public class RStarTree {
         } else {
             // Invoke splitNode() on the overflowed Node.
             Node splitNode = overflowedNode.splitNode();
-            FileHandler.insertNode(splitNode);
+            BufferPool.insertNode(splitNode);
 
             if (overflowedNode.getLevel() != rootLevel) {
                 // If the overflowed node is not the root, create a new entry in the parent node for the new split node.
@@ -206,13 +601,13 @@ public class RStarTree {
                 newRootEntries.add(new Entry(BoundingBox.calculateMBR(splitNode.getEntries()), splitNode.getId()));
 
                 Node newRootNode = new Node(newRootEntries, ++rootLevel, IndexMetaData.getNextAvailableNodeId());
-                FileHandler.setRootNode(newRootNode);
+                BufferPool.setRootNode(newRootNode);
             }
         }
     }
 
     /**
-     * Used to remove a portion of the overflowed node's entries (REINSERT_AMOUNT) and reinsert them into the tree
+     * Used to remove a portion of the overflowed node's entries (getReinsertAmount(level)) and reinsert them into the tree
      * structure, in order to re-balance the overflowed node.
      * @param overflowedNode the overflowed node.
      */
@@ -227,7 +622,8 @@ public class RStarTree {
 
         // Remove the first p entries from the overflowed Node
         ArrayList<Entry> removedEntries = new ArrayList<>();
-        for (int i = 0; i < REINSERT_AMOUNT; i++) {
+        int reinsertAmount = getReinsertAmount(overflowedNode.getLevel());
+        for (int i = 0; i < reinsertAmount; i++) {
             removedEntries.add(overflowedNode.getEntries().remove(0));
         }
 
@@ -239,16 +635,333 @@ public class RStarTree {
         }
     }
 
+    /**
+     * Switches between inserting every record right away and inserting records through insertion buffers, in the
+     * style of buffer trees. New leaf entries are added to a buffer attached to the root and when a buffer fills,
+     * its entries are routed to buffers attached to the children of its node. The buffers of nodes whose children
+     * are leaves are inserted into the leaves as a batch, which descends from the root once, only chooses a leaf
+     * by overlap enlargement for points outside every leaf, and adjusts the bounding boxes on the path once.
+     * Pending entries are kept in memory and are searched by every query, so query results stay exact. They are all
+     * pushed down when they are more than MAX_PENDING_BUFFERS full buffers and before every checkpoint, so only then
+     * are they committed.
+     * @param insertionBufferCapacity the number of entries a buffer holds, or 0 to insert every record right away.
+     */
+    public void setInsertionBufferCapacity(int insertionBufferCapacity) {
+        if (insertionBufferCapacity < 0) {
+            throw new IllegalArgumentException("The insertion buffer capacity can't be negative");
+        }
+        flushInsertionBuffers();
+        this.insertionBufferCapacity = insertionBufferCapacity;
+    }
+
+    public int getInsertionBufferCapacity() {
+        return insertionBufferCapacity;
+    }
+
+    /**
+     * @return the number of records inserted into insertion buffers and not yet into the leaves.
+     */
+    public int getNumberOfPendingEntries() {
+        return numberOfPendingEntries;
+    }
+
+    /**
+     * Inserts every pending entry of the insertion buffers into the leaves.
+     */
+    public void flushInsertionBuffers() {
+        // Entries removed from overflowed leaves are buffered again, but split the leaves they overflow the next time
+        while (numberOfPendingEntries > 0) {
+            long rootNodeId = FileHandler.getRootNodeId();
+            pushDown(rootNodeId, new ArrayList<>(), true);
+
+            // Splits may have moved nodes with pending entries away from the path the flush followed
+            for (long nodeId : new ArrayList<>(insertionBuffers.keySet())) {
+                if (nodeId != rootNodeId) {
+                    ArrayList<LeafEntry> buffer = insertionBuffers.remove(nodeId);
+                    insertionBuffers.computeIfAbsent(rootNodeId, id -> new ArrayList<>()).addAll(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the leaf entry of a new record to the buffer of the root, pushing it down if it is full.
+     * @param leafEntry the leaf entry of the record.
+     */
+    private void bufferLeafEntry(LeafEntry leafEntry) {
+        long rootNodeId = FileHandler.getRootNodeId();
+        ArrayList<LeafEntry> rootBuffer = insertionBuffers.computeIfAbsent(rootNodeId, nodeId -> new ArrayList<>());
+        rootBuffer.add(leafEntry);
+        numberOfPendingEntries++;
+
+        if (numberOfPendingEntries > MAX_PENDING_BUFFERS * insertionBufferCapacity) {
+            flushInsertionBuffers();
+        } else if (rootBuffer.size() >= insertionBufferCapacity) {
+            pushDown(rootNodeId, new ArrayList<>(), false);
+        }
+    }
+
+    /**
+     * Adds pending leaf entries back to the buffer of the root, without pushing it down.
+     * @param leafEntries the leaf entries.
+     */
+    private void requeue(List<LeafEntry> leafEntries) {
+        insertionBuffers.computeIfAbsent(FileHandler.getRootNodeId(), nodeId -> new ArrayList<>()).addAll(leafEntries);
+        numberOfPendingEntries += leafEntries.size();
+    }
+
+    /**
+     * Empties the buffer of an internal node. If the children of the node are leaves, the entries are inserted into
+     * them, otherwise they are routed to the buffers of the children, and the children whose buffers are full are
+     * pushed down in turn.
+     * @param nodeId the id of the internal node.
+     * @param path the nodes from the root to the parent of the node, which are pinned.
+     * @param flush whether the buffers of all the children are pushed down, even if they are not full.
+     * @return whether the node was modified.
+     */
+    private boolean pushDown(long nodeId, ArrayList<Node> path, boolean flush) {
+        Node node = BufferPool.fetchNode(nodeId);
+        path.add(node);
+        ArrayList<LeafEntry> buffer = insertionBuffers.remove(nodeId);
+        if (buffer == null) {
+            buffer = new ArrayList<>();
+        }
+        numberOfPendingEntries -= buffer.size();
+
+        boolean modified = false;
+        if (node.getLevel() == LEAF_LEVEL + 1) {
+            insertBatch(path, buffer);
+            modified = true;
+        } else {
+            for (LeafEntry leafEntry : buffer) {
+                long childNodeId = chooseSubTree(leafEntry, node, LEAF_LEVEL).getChildNodeId();
+                insertionBuffers.computeIfAbsent(childNodeId, id -> new ArrayList<>()).add(leafEntry);
+                numberOfPendingEntries++;
+            }
+            // The entries of the node change when a pushed down child splits
+            long[] childNodeIds = node.getEntries().stream().mapToLong(Entry::getChildNodeId).toArray();
+            for (long childNodeId : childNodeIds) {
+                ArrayList<LeafEntry> childBuffer = insertionBuffers.get(childNodeId);
+                if (childBuffer != null && (flush || childBuffer.size() >= insertionBufferCapacity)) {
+                    modified |= pushDown(childNodeId, path, flush);
+                }
+            }
+        }
+
+        path.remove(path.size() - 1);
+        BufferPool.unpinNode(node, modified);
+        return modified;
+    }
+
+    /**
+     * Inserts a batch of leaf entries into the leaves of a node. The bounding boxes of the path are only adjusted
+     * when an overflow must be treated and at the end of the batch. Leaf entries removed from an overflowed leaf
+     * are buffered at the root again. If a treated overflow moves a node of the path, the rest of the batch is
+     * buffered at the root again too.
+     * @param path the nodes from the root to the node whose children are leaves, which are pinned.
+     * @param batch the leaf entries.
+     */
+    private void insertBatch(ArrayList<Node> path, ArrayList<LeafEntry> batch) {
+        Node node = path.get(path.size() - 1);
+        structureChanged = true; // The path was followed before other batches changed the tree
+        for (int i = 0; i < batch.size(); i++) {
+            if (structureChanged) {
+                if (!isPathValid(path)) {
+                    requeue(batch.subList(i, batch.size()));
+                    return;
+                }
+                structureChanged = false;
+            }
+
+            LeafEntry leafEntry = batch.get(i);
+            levelOverflowCalled = new boolean[getTreeLevels()];
+            levelOverflowCalled[LEAF_LEVEL] = reinsertedEntries.remove(leafEntry);
+            reInsertQueue = new LinkedList<>();
+            insert(leafEntry, node, chooseLeaf(leafEntry, node), LEAF_LEVEL);
+
+            if (node.isOverflowed() || !reInsertQueue.isEmpty()) {
+                adjustPath(path);
+                RIEntry riEntry = reInsertQueue.poll();
+                while (riEntry != null) {
+                    if (riEntry.getInsertionLevel() == LEAF_LEVEL) {
+                        // Leaf entries are reinserted through the buffers, so they are batched as well
+                        LeafEntry reinsertedEntry = (LeafEntry) riEntry.getEntry();
+                        reinsertedEntries.add(reinsertedEntry);
+                        requeue(Collections.singletonList(reinsertedEntry));
+                    } else {
+                        insert(riEntry.getEntry(), null, null, riEntry.getInsertionLevel());
+                    }
+                    riEntry = reInsertQueue.poll();
+                }
+                structureChanged = true;
+            }
+        }
+        // The bounding boxes were adjusted before any overflow that could move a node of the path
+        if (!structureChanged || isPathValid(path)) {
+            adjustPath(path);
+        }
+    }
+
+    /**
+     * Chooses the leaf a batch entry is inserted into. A point inside the bounding box of a leaf doesn't enlarge
+     * it, so it adds no overlap and no area, and the smallest such leaf is the one the R* tree chooses. Only points
+     * outside every leaf need the overlap enlargement of every leaf, which is quadratic in the fanout.
+     * @param leafEntry the batch entry.
+     * @param node the node whose children are leaves.
+     * @return the entry of the chosen leaf.
+     */
+    private Entry chooseLeaf(LeafEntry leafEntry, Node node) {
+        Entry chosenEntry = containingLeaf(leafEntry, node);
+        return chosenEntry != null ? chosenEntry : chooseSubTree(leafEntry, node, LEAF_LEVEL);
+    }
+
+    /**
+     * @param leafEntry a leaf entry.
+     * @param node the node whose children are leaves.
+     * @return the entry of the smallest leaf whose bounding box contains the leaf entry, or null if there is none.
+     */
+    private static Entry containingLeaf(LeafEntry leafEntry, Node node) {
+        Entry chosenEntry = null;
+        for (Entry candidateEntry : node.getEntries()) {
+            if (candidateEntry.getBoundingBox().intersects(leafEntry.getBoundingBox()) && (chosenEntry == null ||
+                    candidateEntry.getBoundingBox().calculateArea() < chosenEntry.getBoundingBox().calculateArea())) {
+                chosenEntry = candidateEntry;
+            }
+        }
+        return chosenEntry;
+    }
+
+    /**
+     * Treats the overflows of the nodes of a path and adjusts the bounding box of every node of the path in its
+     * parent, from the bottom up.
+     * @param path the nodes from the root, which are pinned.
+     */
+    private void adjustPath(ArrayList<Node> path) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node pathNode = path.get(i);
+            Node parentNode = i > 0 ? path.get(i - 1) : null;
+            if (pathNode.isOverflowed()) {
+                overflowTreatment(pathNode, parentNode);
+            }
+            if (parentNode != null) {
+                Entry parentEntry = findEntry(parentNode, pathNode.getId());
+                if (parentEntry != null) {
+                    parentEntry.adjustBoundingBox(pathNode);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param path the nodes from the root.
+     * @return whether the first node is the root and every other node is a child of the node before it.
+     */
+    private boolean isPathValid(ArrayList<Node> path) {
+        if (path.get(0).getId() != FileHandler.getRootNodeId()) {
+            return false;
+        }
+        for (int i = 1; i < path.size(); i++) {
+            if (findEntry(path.get(i - 1), path.get(i).getId()) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the entry of the parent node pointing to the child node, or null if it doesn't point to it.
+     */
+    private static Entry findEntry(Node parentNode, long childNodeId) {
+        for (Entry entry : parentNode.getEntries()) {
+            if (entry.getChildNodeId() == childNodeId) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the leaf entries of every pending record.
+     */
+    private ArrayList<LeafEntry> getPendingEntries() {
+        ArrayList<LeafEntry> pendingEntries = new ArrayList<>(numberOfPendingEntries);
+        for (ArrayList<LeafEntry> buffer : insertionBuffers.values()) {
+            pendingEntries.addAll(buffer);
+        }
+        return pendingEntries;
+    }
+
+    /**
+     * Switches the tree to serving queries only. Every cached change is written to the index file, which is then
+     * reopened read-only and memory mapped, so that node reads don't need a system call. Any later insertion fails.
+     * @param mapDataFile whether the data file is memory mapped too, so that records are read from memory as well.
+     */
+    public void openMapped(boolean mapDataFile) {
+        flushInsertionBuffers();
+        BufferPool.clear();
+        FileHandler.openMapped(mapDataFile);
+    }
+
+    /**
+     * Writes every cached node change to the index file and the in-memory meta data to the file headers.
+     */
+    public void checkpoint() {
+        flushInsertionBuffers();
+        BufferPool.flush();
+        FileHandler.checkpoint();
+    }
+
+    /**
+     * Rewrites the index file so that the reachable nodes are stored contiguously and without free pages between them.
+     * Meant to be run offline, since every cached node is dropped.
+     */
+    public void compact() {
+        flushInsertionBuffers();
+        BufferPool.clear();
+        FileHandler.compact();
+    }
+
+    /**
+     * Writes every cached change to the index file and closes the data and index files.
+     */
+    public void close() {
+        flushInsertionBuffers();
+        BufferPool.clear();
+        FileHandler.close();
+    }
+
+    /**
+     * Looks up a record by its id, using the record id index instead of scanning the data file.
+     * @param recordId the id of the record.
+     * @return the record with the given id, or null if it doesn't exist.
+     */
+    public Record getById(long recordId) {
+        return FileHandler.getRecordById(recordId);
+    }
+
     /** Used to instantiate a RangeQuery object and execute a range query for a given point in a specified range.
      * @param targetPoint the point for which the range query is to be executed.
      * @param range the range of the range query.
      * @return an ArrayList that contains LocationQueryResult objects representing the range query's results.
      */
     public ArrayList<LocationQueryResult> executeRangeQuery(double[] targetPoint, double range) {
-        Node rootNode = FileHandler.getRootNode(); // TODO: Get root node from File Handler. CHECK!
-        TreeRangeQuery rangeQuery = new TreeRangeQuery(targetPoint, range, rootNode);
+        return executeRangeQuery(targetPoint, range, true);
+    }
 
-        return rangeQuery.execute();
+    /** Used to instantiate a RangeQuery object and execute a range query for a given point in a specified range.
+     * @param targetPoint the point for which the range query is to be executed.
+     * @param range the range of the range query.
+     * @param fetchRecords whether the records are read from the data file. If false, the results only locate them.
+     * @return an ArrayList that contains LocationQueryResult objects representing the range query's results.
+     */
+    public ArrayList<LocationQueryResult> executeRangeQuery(double[] targetPoint, double range, boolean fetchRecords) {
+        NodeView rootNode = BufferPool.fetchView(FileHandler.getRootNodeId());
+        TreeRangeQuery rangeQuery = new TreeRangeQuery(targetPoint, range, rootNode, fetchRecords);
+        rangeQuery.addPendingEntries(getPendingEntries());
+        ArrayList<LocationQueryResult> queryResults = rangeQuery.execute();
+        BufferPool.unpinView(rootNode);
+
+        return queryResults;
     }
 
     /**
@@ -259,9 +972,24 @@ public class RStarTree {
      * @return an ArrayList that contains LocationQueryResult objects representing the NN query's results.
      */
     public ArrayList<LocationQueryResult> executeNNQuery(double[] targetPoint, int k) {
-        Node rootNode = FileHandler.getRootNode(); // TODO: Get root node from File Handler. CHECK!
-        TreeNNQuery nnQuery = new TreeNNQuery(targetPoint, k, rootNode);
+        return executeNNQuery(targetPoint, k, true);
+    }
 
-        return nnQuery.execute();
+    /**
+     * Used to instantiate an NNQuery object and execute a k-nearest neighbors query for a given point, using a specified
+     * "k" value.
+     * @param targetPoint the point for which the NN query is to be executed.
+     * @param k the specified "k" value.
+     * @param fetchRecords whether the records are read from the data file. If false, the results only locate them.
+     * @return an ArrayList that contains LocationQueryResult objects representing the NN query's results.
+     */
+    public ArrayList<LocationQueryResult> executeNNQuery(double[] targetPoint, int k, boolean fetchRecords) {
+        NodeView rootNode = BufferPool.fetchView(FileHandler.getRootNodeId());
+        TreeNNQuery nnQuery = new TreeNNQuery(targetPoint, k, rootNode, fetchRecords);
+        nnQuery.addPendingEntries(getPendingEntries());
+        ArrayList<LocationQueryResult> queryResults = nnQuery.execute();
+        BufferPool.unpinView(rootNode);
+
+        return queryResults;
     }
 }
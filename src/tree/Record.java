@@ -1,8 +1,9 @@
 package tree;
 
-import utils.ByteConvertible;
+import utils.ByteCodec;
 import utils.FileHandler;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -10,13 +11,11 @@ import java.util.Arrays;
 /**
  * Class used to store the information of a location.
  */
-public class Record extends ByteConvertible {
+public class Record {
     private final long id; // The unique identifier of the record.
     private final String name; // The name of the location stored in the record.
     private final double[] coordinates; // The coordinates of the location stored in the record.
-    // (RecordId, nameLength, name, Coordinates[DIMENSIONS])
-    public static final int BYTES =
-            Long.BYTES + Integer.BYTES + Character.BYTES * 256 + Double.BYTES * FileHandler.DIMENSIONS;
+    // (RecordId as a zigzag varint, nameLength as a varint, UTF-8 name, Coordinates[DIMENSIONS])
 
     public Record(long id, String name, double[] coordinates) {
         this.id = id;
@@ -41,62 +40,68 @@ public class Record extends ByteConvertible {
         return "Record(id(" + id + "), name(" + name + "), coordinates(" + Arrays.toString(coordinates) + "))";
     }
 
-    @Override
-    public byte[] toBytes()
+    public int getByteSize()
     {
-        byte[] idAsBytes = longToBytes(id),
-                nameAsBytes = name.getBytes(StandardCharsets.UTF_8),
-                nameLengthAsBytes = intToBytes(nameAsBytes.length),
-                coordinatesAsBytes = new byte[coordinates.length * Double.BYTES],
-                recordAsBytes = new byte[BYTES];
+        int nameLength = ByteCodec.utf8Length(name);
+        return ByteCodec.varLongBytes(ByteCodec.zigZagEncode(id)) + ByteCodec.varLongBytes(nameLength) +
+                nameLength + Double.BYTES * coordinates.length;
+    }
 
-        for (int i = 0; i < coordinates.length; ++i)
+    public int writeTo(ByteBuffer buffer, int offset)
+    {
+        offset = ByteCodec.putVarLong(buffer, offset, ByteCodec.zigZagEncode(id));
+        offset = ByteCodec.putVarLong(buffer, offset, ByteCodec.utf8Length(name));
+        offset = ByteCodec.putUtf8(buffer, offset, name);
+        for (double coordinate : coordinates)
         {
-            double coordinate = coordinates[i];
-            System.arraycopy(doubleToBytes(coordinate), 0, coordinatesAsBytes, i * Double.BYTES, Double.BYTES);
+            buffer.putDouble(offset, coordinate);
+            offset += Double.BYTES;
         }
-        int destPos = 0;
-
-        System.arraycopy(idAsBytes, 0, recordAsBytes, destPos, idAsBytes.length);
-        destPos += idAsBytes.length;
-        System.arraycopy(nameLengthAsBytes, 0, recordAsBytes, destPos, nameLengthAsBytes.length);
-        destPos += nameLengthAsBytes.length;
-        System.arraycopy(nameAsBytes, 0, recordAsBytes, destPos, nameAsBytes.length);
-        destPos += nameAsBytes.length;
-        System.arraycopy(new byte[256 - nameAsBytes.length], 0, recordAsBytes, destPos, 256 - nameAsBytes.length);
-        destPos += (256 - nameAsBytes.length);
-        System.arraycopy(coordinatesAsBytes, 0, recordAsBytes, destPos, coordinatesAsBytes.length);
-
-        return recordAsBytes;
+
+        return offset;
+    }
+
+    /**
+     * Reads only the id of a record serialised by writeTo, without changing the position of the buffer.
+     * @param buffer to read from.
+     * @param offset of the buffer where the record starts.
+     * @return the id of the record.
+     */
+    public static long readId(ByteBuffer buffer, int offset)
+    {
+        return ByteCodec.zigZagDecode(ByteCodec.getVarLong(buffer, offset));
     }
 
-    public static Record fromBytes(byte[] bytes)
+    /**
+     * Reads a record serialised by writeTo, without changing the position of the buffer.
+     * @param buffer to read from.
+     * @param offset of the buffer where the record starts.
+     * @return the deserialised record.
+     */
+    public static Record readFrom(ByteBuffer buffer, int offset)
     {
-        byte[] idAsBytes = new byte[Long.BYTES],
-                nameLengthAsBytes = new byte[Integer.BYTES],
-                nameAsBytes = new byte[256],
-                coordinatesAsBytes = new byte[FileHandler.DIMENSIONS * Double.BYTES];
-
-        int srcPos = 0;
-        System.arraycopy(bytes, srcPos, idAsBytes, 0, Long.BYTES);
-        srcPos += Long.BYTES;
-        System.arraycopy(bytes, srcPos, nameLengthAsBytes, 0, Integer.BYTES);
-        srcPos += Integer.BYTES;
-        System.arraycopy(bytes, srcPos, nameAsBytes, 0, 256);
-        srcPos += 256;
-        System.arraycopy(bytes, srcPos, coordinatesAsBytes, 0, FileHandler.DIMENSIONS * Double.BYTES);
-
-        long id = bytesToLong(idAsBytes);
-        int nameLength = bytesToInt(nameLengthAsBytes);
-        String name = new String(nameAsBytes, 0, nameLength);
+        long zigZagId = ByteCodec.getVarLong(buffer, offset);
+        offset += ByteCodec.varLongBytes(zigZagId);
+        int nameLength = (int) ByteCodec.getVarLong(buffer, offset);
+        offset += ByteCodec.varLongBytes(nameLength);
+
+        String name;
+        if (buffer.hasArray()) {
+            name = new String(buffer.array(), buffer.arrayOffset() + offset, nameLength, StandardCharsets.UTF_8);
+        } else {
+            byte[] nameAsBytes = new byte[nameLength];
+            buffer.duplicate().position(offset).get(nameAsBytes);
+            name = new String(nameAsBytes, StandardCharsets.UTF_8);
+        }
+        offset += nameLength;
+
         double[] coordinates = new double[FileHandler.DIMENSIONS];
         for (int i = 0; i < FileHandler.DIMENSIONS; ++i)
         {
-            byte[] coordinateAsBytes = new byte[Double.BYTES];
-            System.arraycopy(coordinatesAsBytes, i * Double.BYTES, coordinateAsBytes, 0, Double.BYTES);
-            coordinates[i] = bytesToDouble(coordinateAsBytes);
+            coordinates[i] = buffer.getDouble(offset);
+            offset += Double.BYTES;
         }
 
-        return new Record(id, name, coordinates);
+        return new Record(ByteCodec.zigZagDecode(zigZagId), name, coordinates);
     }
 }
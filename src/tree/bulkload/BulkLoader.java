@@ -0,0 +1,278 @@
+package tree.bulkload;
+
+import tree.*;
+import utils.DataBlock;
+import utils.DataMetaData;
+import utils.FileHandler;
+import utils.IndexMetaData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongSupplier;
+
+/**
+ * Builds the index over every record of the data file bottom-up, instead of inserting the records one by one.
+ * The entries of a level, starting with one leaf entry per record, are put in packing order by the subclass and
+ * consecutive entries are packed into nodes holding fillFactor times the maximum number of entries. The nodes of
+ * a level are the entries of the next one, until a level fits in a single node, which becomes the root.
+ * Nodes are written as soon as they are packed, so the pages of every level are consecutive in the index file.
+ */
+public abstract class BulkLoader {
+    public static final double DEFAULT_FILL_FACTOR = 1.0;
+    public static final int DEFAULT_MAX_ENTRIES_IN_MEMORY = 1 << 20;
+
+    protected final double fillFactor; // The fraction of the maximum entries of a node it is filled with.
+    protected final int maxEntriesInMemory; // The maximum number of entries an external sort holds in memory.
+
+    /**
+     * @param fillFactor the fraction of the maximum entries of a node it is filled with, in (0, 1].
+     * @param maxEntriesInMemory the maximum number of entries an external sort holds in memory before it spills
+     *                           a sorted run to a temporary file.
+     */
+    protected BulkLoader(double fillFactor, int maxEntriesInMemory) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("The fill factor must be in (0, 1]");
+        }
+        if (maxEntriesInMemory < 1) {
+            throw new IllegalArgumentException("At least one entry must fit in memory");
+        }
+        this.fillFactor = fillFactor;
+        this.maxEntriesInMemory = maxEntriesInMemory;
+    }
+
+    /**
+     * Receives the entries of a level in packing order.
+     */
+    @FunctionalInterface
+    protected interface EntryConsumer {
+        void accept(Entry entry) throws IOException;
+    }
+
+    /**
+     * Puts the entries of a level in packing order. Every getNodeCapacity(level) consecutive entries of the output
+     * are packed into one node. Leaf level entries hold the locator of their record as their child node id.
+     * @param entries the entries of the level, which must all be consumed.
+     * @param count the number of entries.
+     * @param level the level of the nodes the entries are packed into.
+     * @param packingOrder receives the entries in packing order.
+     */
+    protected abstract void order(Iterator<Entry> entries, long count, int level, EntryConsumer packingOrder)
+            throws IOException;
+
+    /**
+     * @param level the tree level of the nodes.
+     * @return the number of entries packed into every node of the level, except the last ones.
+     */
+    public int getNodeCapacity(int level) {
+        int capacity = (int) Math.floor(Node.getMaxEntriesLimit(level) * fillFactor);
+        // Internal nodes hold at least two entries, so that every level has fewer nodes than the one below it
+        return Math.max(capacity, Math.max(Node.getMinEntriesLimit(level), 2));
+    }
+
+    /**
+     * Orders the entries by the center of their bounding boxes in one dimension.
+     */
+    protected static Comparator<Entry> byCenter(int dimension) {
+        return Comparator.comparingDouble(entry -> entry.getBoundingBox().getCenterValue(dimension));
+    }
+
+    /**
+     * Builds the tree over every record of the data file. The index must be empty.
+     * @return the root node of the tree.
+     * @throws IOException if a temporary file can't be written or read.
+     */
+    public Node load() throws IOException {
+        checkEmptyIndex();
+        PackedLevel topLevel = packLevels(new RecordEntries(), DataMetaData.getNumberOfRecords(),
+                RStarTree.getLeafLevel(), Integer.MAX_VALUE, IndexMetaData::getNextAvailableNodeId);
+        return setRoot(topLevel);
+    }
+
+    static void checkEmptyIndex() {
+        if (IndexMetaData.getNumOfNodes() != 0) {
+            throw new IllegalStateException("Only an empty index can be bulk loaded");
+        }
+    }
+
+    /**
+     * Packs the entries of a level and then the entries of every following level, until a level fits in a single
+     * node or stopLevel has been packed.
+     * @param entries the entries of the first level, which are all consumed.
+     * @param count the number of entries.
+     * @param level the level of the nodes the entries are packed into.
+     * @param stopLevel the last level to be packed.
+     * @param nodeIds supplies the ids of the new nodes.
+     * @return the last level packed, which holds the entries of its nodes.
+     */
+    PackedLevel packLevels(Iterator<Entry> entries, long count, int level, int stopLevel, LongSupplier nodeIds)
+            throws IOException {
+        PackedLevel packedLevel = null;
+        while (true) {
+            NodePacker packer = new NodePacker(level, nodeIds);
+            order(entries, count, level, packer::add);
+            if (packedLevel != null) {
+                packedLevel.close();
+            }
+            packedLevel = packer.finish();
+
+            if (packedLevel.numberOfNodes <= 1 || level == stopLevel) {
+                return packedLevel;
+            }
+            entries = packedLevel.parentEntries.read();
+            count = packedLevel.numberOfNodes;
+            level++;
+        }
+    }
+
+    /**
+     * Makes the node of the last packed level the root of the tree and commits the tree.
+     * @param topLevel the last packed level, which must hold at most one node.
+     * @return the root node of the tree.
+     */
+    static Node setRoot(PackedLevel topLevel) throws IOException {
+        topLevel.close();
+        Node rootNode = topLevel.lastNode;
+        if (rootNode == null) {
+            // The data file has no records
+            rootNode = new Node(RStarTree.getLeafLevel(), IndexMetaData.getNextAvailableNodeId());
+            FileHandler.insertNode(rootNode);
+        }
+        FileHandler.setRoot(rootNode);
+        FileHandler.commit();
+        return rootNode;
+    }
+
+    /**
+     * @param count the number of entries of a level.
+     * @param level the level of the nodes the entries are packed into.
+     * @return the number of nodes the entries are packed into.
+     */
+    long countNodes(long count, int level) {
+        return (count + getNodeCapacity(level) - 1) / getNodeCapacity(level);
+    }
+
+    /**
+     * Writes a new node to the index file.
+     */
+    void writeNode(Node node) {
+        FileHandler.insertNode(node);
+    }
+
+    /**
+     * The nodes of a packed level and a temporary file with the entries pointing to them, which are the entries
+     * of the next level.
+     */
+    static class PackedLevel implements Closeable {
+        final int level;
+        final EntryFile parentEntries;
+        long numberOfNodes = 0;
+        Node lastNode;
+
+        PackedLevel(int level) throws IOException {
+            this.level = level;
+            parentEntries = new EntryFile();
+        }
+
+        @Override
+        public void close() throws IOException {
+            parentEntries.close();
+        }
+    }
+
+    /**
+     * Packs the entries of a level into nodes, writes them and appends an entry for every node to the entries
+     * of the next level. If the last node would hold fewer than the minimum entries, entries are moved to it from
+     * the node before it.
+     */
+    private class NodePacker {
+        private final int capacity;
+        private final int minEntries;
+        private final LongSupplier nodeIds;
+        private final PackedLevel packedLevel;
+        private ArrayList<Entry> previous; // The last full node, which is only written when the next one is started
+        private ArrayList<Entry> current = new ArrayList<>();
+
+        NodePacker(int level, LongSupplier nodeIds) throws IOException {
+            this.nodeIds = nodeIds;
+            packedLevel = new PackedLevel(level);
+            capacity = getNodeCapacity(level);
+            minEntries = Node.getMinEntriesLimit(level);
+        }
+
+        void add(Entry entry) throws IOException {
+            if (packedLevel.level == RStarTree.getLeafLevel()) {
+                entry = new LeafEntry(entry.getBoundingBox(), entry.getChildNodeId());
+            }
+            current.add(entry);
+            if (current.size() == capacity) {
+                if (previous != null) {
+                    write(previous);
+                }
+                previous = current;
+                current = new ArrayList<>(capacity);
+            }
+        }
+
+        PackedLevel finish() throws IOException {
+            if (previous != null && !current.isEmpty() && current.size() < minEntries) {
+                int moved = Math.min(minEntries, (previous.size() + current.size()) / 2) - current.size();
+                ArrayList<Entry> movedEntries = new ArrayList<>(previous.subList(previous.size() - moved, previous.size()));
+                previous.subList(previous.size() - moved, previous.size()).clear();
+                current.addAll(0, movedEntries);
+            }
+            if (previous != null) {
+                write(previous);
+            }
+            if (!current.isEmpty()) {
+                write(current);
+            }
+            return packedLevel;
+        }
+
+        private void write(ArrayList<Entry> entries) throws IOException {
+            Node node = new Node(entries, packedLevel.level, nodeIds.getAsLong());
+            writeNode(node);
+            packedLevel.parentEntries.append(new Entry(BoundingBox.calculateMBR(entries), node.getId()));
+            packedLevel.lastNode = node;
+            packedLevel.numberOfNodes++;
+        }
+    }
+
+    /**
+     * Streams one leaf entry per record of the data file, in the order the records are stored. The child node id
+     * of every entry is the locator of its record.
+     */
+    static class RecordEntries implements Iterator<Entry> {
+        private final long numberOfBlocks = DataMetaData.getNumberOfBlocks();
+        private long blockId = 0;
+        private DataBlock block;
+        private int slot = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (block == null || slot == block.getNumberOfSlots()) {
+                if (++blockId >= numberOfBlocks) {
+                    return false;
+                }
+                block = FileHandler.readDataBlock(blockId);
+                slot = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            double[] point = block.getRecord(slot).getCoordinates();
+            Entry entry = new Entry(new BoundingBox(point, point.clone()), DataBlock.toLocator(blockId, slot));
+            slot++;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package tree.bulkload;
+
+import tree.Entry;
+import utils.FileHandler;
+import utils.StorageSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Temporary file holding a sequence of entries, which is written once and then read back in order.
+ * Bulk loaders use it for the sorted runs of an external sort and for the entries of a tree level, so that the
+ * memory they use doesn't depend on the size of the dataset. The file is deleted when it is closed.
+ */
+class EntryFile implements Closeable {
+    private static final int BUFFER_ENTRIES = 1024; // Entries read or written per system call
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_ENTRIES * Entry.BYTES);
+    private long size = 0;
+
+    EntryFile() throws IOException {
+        path = Files.createTempFile(FileHandler.getPath("").toAbsolutePath(), "bulkload", ".tmp");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * @return the number of entries appended to the file.
+     */
+    long size() {
+        return size;
+    }
+
+    void append(Entry entry) throws IOException {
+        if (writeBuffer.remaining() < Entry.BYTES) {
+            flush();
+        }
+        entry.writeTo(writeBuffer, writeBuffer.position());
+        writeBuffer.position(writeBuffer.position() + Entry.BYTES);
+        size++;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        StorageSession.writeFully(channel, writeBuffer, channel.size());
+        writeBuffer.clear();
+    }
+
+    /**
+     * Ends writing and returns the entries in the order they were appended. The file must not be closed before the
+     * iterator is consumed.
+     * @return an iterator over the entries of the file.
+     */
+    Iterator<Entry> read() throws IOException {
+        flush();
+        return new Iterator<Entry>() {
+            private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_ENTRIES * Entry.BYTES);
+            private long position = 0; // The position of the file readBuffer is filled from
+            private long remaining = size;
+
+            {
+                readBuffer.limit(0);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public Entry next() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                if (!readBuffer.hasRemaining()) {
+                    readBuffer.clear();
+                    readBuffer.limit((int) Math.min(readBuffer.capacity(), remaining * Entry.BYTES));
+                    try {
+                        StorageSession.readFully(channel, readBuffer, position);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    position += readBuffer.limit();
+                    readBuffer.flip();
+                }
+                Entry entry = Entry.readFrom(readBuffer, readBuffer.position());
+                readBuffer.position(readBuffer.position() + Entry.BYTES);
+                remaining--;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,172 @@
+package tree.bulkload;
+
+import tree.Entry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * External merge sort of entries. Entries are buffered in memory until the buffer is full, then the buffer is sorted
+ * and spilled as a run to an EntryFile. The sorted sequence is produced by merging the runs, so at most
+ * maxEntriesInMemory entries plus one read buffer per run are held in memory. If every entry fits in memory, nothing
+ * is written to disk.
+ */
+class EntrySorter implements Closeable {
+    private final ToLongFunction<Entry> key; // The sort key, or null if the entries are compared by entryOrder
+    private final Comparator<KeyedEntry> order;
+    private final int maxEntriesInMemory;
+    private final ArrayList<KeyedEntry> buffer = new ArrayList<>();
+    private final ArrayList<EntryFile> runs = new ArrayList<>();
+    private long size = 0;
+
+    /**
+     * An entry along with its sort key, so that the key is computed once while the entry is in memory.
+     */
+    private static class KeyedEntry {
+        private final Entry entry;
+        private final long key;
+
+        KeyedEntry(Entry entry, long key) {
+            this.entry = entry;
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param order the order the entries are sorted in.
+     * @param maxEntriesInMemory the maximum number of entries buffered before a run is spilled.
+     */
+    EntrySorter(Comparator<Entry> order, int maxEntriesInMemory) {
+        this.key = null;
+        this.order = (a, b) -> order.compare(a.entry, b.entry);
+        this.maxEntriesInMemory = maxEntriesInMemory;
+    }
+
+    /**
+     * Sorts the entries by a key that is costly to compute. The key of an entry is computed when it is added and
+     * again only if it is read back from a spilled run, instead of on both sides of every comparison.
+     * @param key the key the entries are sorted by, in ascending order.
+     * @param maxEntriesInMemory the maximum number of entries buffered before a run is spilled.
+     */
+    EntrySorter(ToLongFunction<Entry> key, int maxEntriesInMemory) {
+        this.key = key;
+        this.order = Comparator.comparingLong(keyedEntry -> keyedEntry.key);
+        this.maxEntriesInMemory = maxEntriesInMemory;
+    }
+
+    long size() {
+        return size;
+    }
+
+    private KeyedEntry withKey(Entry entry) {
+        return new KeyedEntry(entry, key == null ? 0 : key.applyAsLong(entry));
+    }
+
+    void add(Entry entry) throws IOException {
+        buffer.add(withKey(entry));
+        size++;
+        if (buffer.size() >= maxEntriesInMemory) {
+            spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(order);
+        EntryFile run = new EntryFile();
+        runs.add(run);
+        for (KeyedEntry keyedEntry : buffer) {
+            run.append(keyedEntry.entry);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Ends adding entries and returns them sorted. The iterator must be consumed before the sorter is closed.
+     * @return an iterator over the sorted entries.
+     */
+    Iterator<Entry> sorted() throws IOException {
+        buffer.sort(order);
+        if (runs.isEmpty()) {
+            Iterator<KeyedEntry> sortedBuffer = buffer.iterator();
+            return new Iterator<Entry>() {
+                @Override
+                public boolean hasNext() {
+                    return sortedBuffer.hasNext();
+                }
+
+                @Override
+                public Entry next() {
+                    return sortedBuffer.next().entry;
+                }
+            };
+        }
+
+        // Each head is the next entry of one run, or of the in-memory buffer
+        class RunHead {
+            private final Iterator<KeyedEntry> run;
+            private KeyedEntry entry;
+
+            RunHead(Iterator<KeyedEntry> run) {
+                this.run = run;
+                entry = run.next();
+            }
+        }
+        PriorityQueue<RunHead> heads = new PriorityQueue<>((a, b) -> order.compare(a.entry, b.entry));
+        for (EntryFile run : runs) {
+            Iterator<Entry> runEntries = run.read();
+            heads.add(new RunHead(new Iterator<KeyedEntry>() {
+                @Override
+                public boolean hasNext() {
+                    return runEntries.hasNext();
+                }
+
+                @Override
+                public KeyedEntry next() {
+                    return withKey(runEntries.next());
+                }
+            }));
+        }
+        if (!buffer.isEmpty()) {
+            heads.add(new RunHead(buffer.iterator()));
+        }
+
+        return new Iterator<Entry>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Entry next() {
+                RunHead head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry entry = head.entry.entry;
+                if (head.run.hasNext()) {
+                    head.entry = head.run.next();
+                    heads.add(head);
+                }
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Deletes the spilled runs.
+     */
+    @Override
+    public void close() throws IOException {
+        for (EntryFile run : runs) {
+            run.close();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+}
@@ -0,0 +1,74 @@
+package tree.bulkload;
+
+import tree.Entry;
+import tree.RStarTree;
+import utils.FileHandler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Hilbert packed bulk loader. The records are sorted by the Hilbert key of their coordinates and packed into leaves
+ * in that order. Since every level is packed in the order of the level below, spatially neighbouring nodes are
+ * written to adjacent pages of the index file, so a range query reads a few runs of consecutive pages.
+ */
+public class HilbertBulkLoader extends BulkLoader {
+
+    public HilbertBulkLoader() {
+        this(DEFAULT_FILL_FACTOR, DEFAULT_MAX_ENTRIES_IN_MEMORY);
+    }
+
+    public HilbertBulkLoader(double fillFactor, int maxEntriesInMemory) {
+        super(fillFactor, maxEntriesInMemory);
+    }
+
+    @Override
+    protected void order(Iterator<Entry> entries, long count, int level, EntryConsumer packingOrder)
+            throws IOException {
+        if (level != RStarTree.getLeafLevel()) {
+            // The nodes of the level below were packed in Hilbert order, so their entries already are in it
+            while (entries.hasNext()) {
+                packingOrder.accept(entries.next());
+            }
+            return;
+        }
+
+        // The curve must cover every record, so the entries are copied while their bounds are found
+        try (EntryFile copy = new EntryFile()) {
+            double[] lowerLeftPoint = new double[FileHandler.DIMENSIONS];
+            double[] upperRightPoint = new double[FileHandler.DIMENSIONS];
+            Arrays.fill(lowerLeftPoint, Double.POSITIVE_INFINITY);
+            Arrays.fill(upperRightPoint, Double.NEGATIVE_INFINITY);
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                for (int d = 0; d < FileHandler.DIMENSIONS; d++) {
+                    double center = entry.getBoundingBox().getCenterValue(d);
+                    lowerLeftPoint[d] = Math.min(lowerLeftPoint[d], center);
+                    upperRightPoint[d] = Math.max(upperRightPoint[d], center);
+                }
+                copy.append(entry);
+            }
+
+            HilbertCurve curve = new HilbertCurve(lowerLeftPoint, upperRightPoint);
+            try (EntrySorter sorter = new EntrySorter(entry -> curve.key(center(entry)), maxEntriesInMemory)) {
+                Iterator<Entry> copiedEntries = copy.read();
+                while (copiedEntries.hasNext()) {
+                    sorter.add(copiedEntries.next());
+                }
+                Iterator<Entry> sorted = sorter.sorted();
+                while (sorted.hasNext()) {
+                    packingOrder.accept(sorted.next());
+                }
+            }
+        }
+    }
+
+    private static double[] center(Entry entry) {
+        double[] center = new double[FileHandler.DIMENSIONS];
+        for (int d = 0; d < FileHandler.DIMENSIONS; d++) {
+            center[d] = entry.getBoundingBox().getCenterValue(d);
+        }
+        return center;
+    }
+}
@@ -0,0 +1,83 @@
+package tree.bulkload;
+
+import utils.FileHandler;
+
+/**
+ * Maps points of a bounding region to their position along a Hilbert curve that fills the region. Points that are
+ * close along the curve are close in space, so sorting by the key keeps spatial neighbours together.
+ * Every coordinate is scaled to BITS_PER_DIMENSION bits, so the keys of all dimensions fit in a positive long.
+ */
+public class HilbertCurve {
+    public static final int BITS_PER_DIMENSION = (Long.SIZE - 1) / FileHandler.DIMENSIONS;
+    private static final long MAX_CELL = (1L << BITS_PER_DIMENSION) - 1;
+
+    private final double[] lowerLeftPoint;
+    private final double[] scale; // Cells per unit of every dimension
+
+    /**
+     * @param lowerLeftPoint the lower corner of the region the curve fills.
+     * @param upperRightPoint the upper corner of the region the curve fills.
+     */
+    public HilbertCurve(double[] lowerLeftPoint, double[] upperRightPoint) {
+        this.lowerLeftPoint = lowerLeftPoint.clone();
+        scale = new double[FileHandler.DIMENSIONS];
+        for (int d = 0; d < FileHandler.DIMENSIONS; d++) {
+            double extent = upperRightPoint[d] - lowerLeftPoint[d];
+            scale[d] = extent > 0 ? MAX_CELL / extent : 0;
+        }
+    }
+
+    /**
+     * @param point a point, whose coordinates are clamped to the region of the curve.
+     * @return the position of the point's cell along the curve.
+     */
+    public long key(double[] point) {
+        long[] cell = new long[FileHandler.DIMENSIONS];
+        for (int d = 0; d < FileHandler.DIMENSIONS; d++) {
+            double scaled = (point[d] - lowerLeftPoint[d]) * scale[d];
+            cell[d] = (long) Math.max(0, Math.min(MAX_CELL, scaled));
+        }
+        return key(cell);
+    }
+
+    /**
+     * Skilling's transform of the cell coordinates to the transposed Hilbert index, whose bits are then interleaved
+     * from the most significant one.
+     */
+    private static long key(long[] cell) {
+        int n = cell.length;
+        for (long q = 1L << (BITS_PER_DIMENSION - 1); q > 1; q >>= 1) {
+            long p = q - 1;
+            for (int i = 0; i < n; i++) {
+                if ((cell[i] & q) != 0) {
+                    cell[0] ^= p;
+                } else {
+                    long t = (cell[0] ^ cell[i]) & p;
+                    cell[0] ^= t;
+                    cell[i] ^= t;
+                }
+            }
+        }
+        // Gray encode
+        for (int i = 1; i < n; i++) {
+            cell[i] ^= cell[i - 1];
+        }
+        long t = 0;
+        for (long q = 1L << (BITS_PER_DIMENSION - 1); q > 1; q >>= 1) {
+            if ((cell[n - 1] & q) != 0) {
+                t ^= q - 1;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            cell[i] ^= t;
+        }
+
+        long key = 0;
+        for (int bit = BITS_PER_DIMENSION - 1; bit >= 0; bit--) {
+            for (int i = 0; i < n; i++) {
+                key = (key << 1) | ((cell[i] >>> bit) & 1);
+            }
+        }
+        return key;
+    }
+}
@@ -0,0 +1,251 @@
+package tree.bulkload;
+
+import tree.Entry;
+import tree.Node;
+import tree.RStarTree;
+import utils.DataMetaData;
+import utils.IndexMetaData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongSupplier;
+
+/**
+ * STR bulk loader that builds the lower levels of the tree on several cores. The records are cut into slabs by the
+ * center of the first dimension, a few per thread so that uneven slabs still keep every thread busy. The cut points
+ * are taken from a sample, so cutting only copies the records, and every slab is sorted by the task that packs it.
+ * The subtree of every slab is packed with STR by a ForkJoinPool task, up to a level every slab still fills with
+ * whole nodes, and the upper levels are then packed over the roots of all the subtrees.
+ * Every task assigns node ids from its own range reserved in IndexMetaData, so only the node writes, which go
+ * through the shared write-ahead log, are serialised. The memory of the external sorts is shared by the threads.
+ */
+public class ParallelBulkLoader extends STRBulkLoader {
+    private static final int SLABS_PER_THREAD = 4;
+    private static final int SAMPLES_PER_SLAB = 256; // Sampled entries the cut points between slabs are chosen from
+
+    private final int parallelism;
+    private final Object writeLock = new Object();
+
+    public ParallelBulkLoader() {
+        this(DEFAULT_FILL_FACTOR, DEFAULT_MAX_ENTRIES_IN_MEMORY, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param fillFactor the fraction of the maximum entries of a node it is filled with, in (0, 1].
+     * @param maxEntriesInMemory the maximum number of entries held in memory by the external sorts of all threads.
+     * @param parallelism the number of threads building subtrees.
+     */
+    public ParallelBulkLoader(double fillFactor, int maxEntriesInMemory, int parallelism) {
+        super(fillFactor, Math.max(1, maxEntriesInMemory / Math.max(1, parallelism)));
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("At least one thread must build the tree");
+        }
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    void writeNode(Node node) {
+        synchronized (writeLock) {
+            super.writeNode(node);
+        }
+    }
+
+    @Override
+    public Node load() throws IOException {
+        checkEmptyIndex();
+        long count = DataMetaData.getNumberOfRecords();
+        int leafLevel = RStarTree.getLeafLevel();
+        // Every slab must fill at least one leaf
+        int numberOfSlabs = (int) Math.min((long) parallelism * SLABS_PER_THREAD, count / getNodeCapacity(leafLevel));
+        if (numberOfSlabs < 2) {
+            return super.load();
+        }
+
+        EntryFile[] slabs = partition(new RecordEntries(), count, numberOfSlabs);
+        long minSlabEntries = Long.MAX_VALUE;
+        for (EntryFile slab : slabs) {
+            minSlabEntries = Math.min(minSlabEntries, slab.size());
+        }
+        if (minSlabEntries == 0) {
+            // Many records share the center of a cut point, so the slabs are too uneven to be packed apart
+            for (EntryFile slab : slabs) {
+                slab.close();
+            }
+            return super.load();
+        }
+
+        PackedLevel[] subtrees = new PackedLevel[slabs.length];
+        int stopLevel = getSubtreeStopLevel(minSlabEntries);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new SubtreeTask(slabs, subtrees, stopLevel, 0, slabs.length));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            for (EntryFile slab : slabs) {
+                slab.close();
+            }
+        }
+
+        long numberOfRoots = 0;
+        for (PackedLevel subtree : subtrees) {
+            numberOfRoots += subtree.numberOfNodes;
+        }
+        PackedLevel topLevel = packLevels(new SubtreeRoots(subtrees), numberOfRoots, stopLevel + 1,
+                Integer.MAX_VALUE, IndexMetaData::getNextAvailableNodeId);
+        for (PackedLevel subtree : subtrees) {
+            subtree.close();
+        }
+        return setRoot(topLevel);
+    }
+
+    /**
+     * Cuts the entries into slabs of about the same size by the center of the first dimension. The entries are
+     * copied while every few of them is sampled, the cut points are the quantiles of the sample, and the copy is
+     * then distributed to the slabs, so no entries are sorted.
+     * @return the files holding the entries of every slab, in the order of the first dimension.
+     */
+    private EntryFile[] partition(Iterator<Entry> entries, long count, int numberOfSlabs) throws IOException {
+        long step = Math.max(1, count / ((long) numberOfSlabs * SAMPLES_PER_SLAB));
+        double[] sample = new double[(int) ((count + step - 1) / step)];
+        int sampleSize = 0;
+        EntryFile[] slabs = new EntryFile[numberOfSlabs];
+        try (EntryFile copy = new EntryFile()) {
+            for (long i = 0; entries.hasNext(); i++) {
+                Entry entry = entries.next();
+                if (i % step == 0 && sampleSize < sample.length) {
+                    sample[sampleSize++] = entry.getBoundingBox().getCenterValue(0);
+                }
+                copy.append(entry);
+            }
+
+            Arrays.sort(sample, 0, sampleSize);
+            double[] cutPoints = new double[numberOfSlabs - 1];
+            for (int i = 1; i < numberOfSlabs; i++) {
+                cutPoints[i - 1] = sample[(int) ((long) sampleSize * i / numberOfSlabs)];
+            }
+
+            for (int i = 0; i < numberOfSlabs; i++) {
+                slabs[i] = new EntryFile();
+            }
+            Iterator<Entry> copiedEntries = copy.read();
+            while (copiedEntries.hasNext()) {
+                Entry entry = copiedEntries.next();
+                int slab = Arrays.binarySearch(cutPoints, entry.getBoundingBox().getCenterValue(0));
+                // Entries at a cut point go to the slab after it
+                slabs[slab >= 0 ? slab + 1 : -slab - 1].append(entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (EntryFile slab : slabs) {
+                if (slab != null) {
+                    slab.close();
+                }
+            }
+            throw e;
+        }
+        return slabs;
+    }
+
+    /**
+     * Finds the last level the subtrees are packed up to. A level is packed by the subtrees only if every slab
+     * packs it into enough nodes to fill a node of the next level, so that the partial nodes at the edges of the
+     * slabs stay few compared to the full ones and the tree is not taller than a sequentially packed one.
+     * @param minSlabEntries the number of entries of the smallest slab, which isn't empty.
+     */
+    private int getSubtreeStopLevel(long minSlabEntries) {
+        int level = RStarTree.getLeafLevel();
+        long numberOfNodes = countNodes(minSlabEntries, level);
+        while (countNodes(numberOfNodes, level + 1) >= getNodeCapacity(level + 2)) {
+            level++;
+            numberOfNodes = countNodes(numberOfNodes, level);
+        }
+        return level;
+    }
+
+    /**
+     * Packs the subtrees of a range of slabs, splitting the range until it holds a single slab.
+     */
+    private class SubtreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryFile[] slabs;
+        private final PackedLevel[] subtrees;
+        private final int stopLevel;
+        private final int from;
+        private final int to;
+
+        SubtreeTask(EntryFile[] slabs, PackedLevel[] subtrees, int stopLevel, int from, int to) {
+            this.slabs = slabs;
+            this.subtrees = subtrees;
+            this.stopLevel = stopLevel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SubtreeTask(slabs, subtrees, stopLevel, from, middle),
+                        new SubtreeTask(slabs, subtrees, stopLevel, middle, to));
+                return;
+            }
+            EntryFile slab = slabs[from];
+            long numberOfNodes = 0;
+            long count = slab.size();
+            for (int level = RStarTree.getLeafLevel(); level <= stopLevel; level++) {
+                count = countNodes(count, level);
+                numberOfNodes += count;
+            }
+            long[] nextNodeId = {IndexMetaData.reserveNodeIds(numberOfNodes)};
+            LongSupplier nodeIds = () -> nextNodeId[0]++;
+            try {
+                subtrees[from] = packLevels(slab.read(), slab.size(), RStarTree.getLeafLevel(), stopLevel, nodeIds);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Streams the entries pointing to the roots of every subtree, slab after slab.
+     */
+    private static class SubtreeRoots implements Iterator<Entry> {
+        private final PackedLevel[] subtrees;
+        private int subtree = 0;
+        private Iterator<Entry> roots;
+
+        SubtreeRoots(PackedLevel[] subtrees) {
+            this.subtrees = subtrees;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (roots == null || !roots.hasNext()) {
+                if (subtree == subtrees.length) {
+                    return false;
+                }
+                try {
+                    roots = subtrees[subtree++].parentEntries.read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return roots.next();
+        }
+    }
+}
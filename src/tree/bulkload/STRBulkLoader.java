@@ -0,0 +1,85 @@
+package tree.bulkload;
+
+import tree.Entry;
+import utils.FileHandler;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sort-Tile-Recursive bulk loader. The entries of a level are sorted by the center of their bounding boxes in the
+ * first dimension and cut into slabs of whole nodes, so that there are about as many slabs as nodes per slab.
+ * Every slab is tiled the same way in the next dimension and in the last dimension the sorted entries of a slab
+ * are packed in order. Sorting is external, so memory use is bounded by maxEntriesInMemory per dimension.
+ */
+public class STRBulkLoader extends BulkLoader {
+
+    public STRBulkLoader() {
+        this(DEFAULT_FILL_FACTOR, DEFAULT_MAX_ENTRIES_IN_MEMORY);
+    }
+
+    public STRBulkLoader(double fillFactor, int maxEntriesInMemory) {
+        super(fillFactor, maxEntriesInMemory);
+    }
+
+    @Override
+    protected void order(Iterator<Entry> entries, long count, int level, EntryConsumer packingOrder)
+            throws IOException {
+        tile(entries, count, 0, getNodeCapacity(level), packingOrder);
+    }
+
+    /**
+     * @param entries the entries to be tiled, which are all consumed.
+     * @param count the number of entries.
+     * @param dimension the dimension the entries are sorted by.
+     * @param capacity the number of entries of a node.
+     * @param packingOrder receives the entries in packing order.
+     */
+    private void tile(Iterator<Entry> entries, long count, int dimension, int capacity, EntryConsumer packingOrder)
+            throws IOException {
+        try (EntrySorter sorter = new EntrySorter(byCenter(dimension), maxEntriesInMemory)) {
+            while (entries.hasNext()) {
+                sorter.add(entries.next());
+            }
+            Iterator<Entry> sorted = sorter.sorted();
+            if (dimension == FileHandler.DIMENSIONS - 1) {
+                while (sorted.hasNext()) {
+                    packingOrder.accept(sorted.next());
+                }
+                return;
+            }
+
+            long nodes = (count + capacity - 1) / capacity;
+            long slabs = (long) Math.ceil(Math.pow(nodes, 1.0 / (FileHandler.DIMENSIONS - dimension)));
+            long slabEntries = (nodes + slabs - 1) / slabs * capacity;
+            for (long start = 0; start < count; start += slabEntries) {
+                long slabCount = Math.min(slabEntries, count - start);
+                tile(limit(sorted, slabCount), slabCount, dimension + 1, capacity, packingOrder);
+            }
+        }
+    }
+
+    /**
+     * @return an iterator over the next count entries of the given iterator.
+     */
+    private static Iterator<Entry> limit(Iterator<Entry> entries, long count) {
+        return new Iterator<Entry>() {
+            private long remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0 && entries.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                return entries.next();
+            }
+        };
+    }
+}
@@ -5,6 +5,7 @@ import tree.Entry;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -12,12 +13,21 @@ import java.util.Map;
  * from the addition of a specified entry to them.
  */
 public class OverlapEnlargementComparator implements java.util.Comparator<Entry> {
-    private final ArrayList<Entry> candidateEntries;
+    private final List<Entry> nodeEntries;
     private final Entry targetEntry;
     private final Map<Entry, Double> enlargementMap;
 
     public OverlapEnlargementComparator(ArrayList<Entry> candidateEntries, Entry targetEntry) {
-        this.candidateEntries = candidateEntries;
+        this(candidateEntries, candidateEntries, targetEntry);
+    }
+
+    /**
+     * @param candidateEntries the entries to be compared, which are some of the node's entries.
+     * @param nodeEntries all the entries of the node, which the overlap of every candidate is calculated with.
+     * @param targetEntry the entry to be added.
+     */
+    public OverlapEnlargementComparator(List<Entry> candidateEntries, List<Entry> nodeEntries, Entry targetEntry) {
+        this.nodeEntries = nodeEntries;
         this.targetEntry = targetEntry;
         enlargementMap = new HashMap<>();
 
@@ -46,7 +56,7 @@ public class OverlapEnlargementComparator implements java.util.Comparator<Entry>
     private double calculateOverlap(Entry excludedEntry, BoundingBox testBB) {
         double overlapSum = 0;
 
-        for (Entry candidateEntry: candidateEntries) {
+        for (Entry candidateEntry: nodeEntries) {
             BoundingBox candidateBoundingBox = candidateEntry.getBoundingBox();
             //TODO: Check example for a different approach here
             if (candidateEntry != excludedEntry) {
@@ -0,0 +1,392 @@
+package utils;
+
+import tree.Node;
+import tree.NodeView;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Bounded cache of index Nodes that sits between the tree and the index file.
+ * Nodes are pinned while they are in use and unpinned Nodes are evicted using the CLOCK policy.
+ * Modified and new Nodes are only marked as dirty and are written back to the index file in batches, either when
+ * they are evicted or when the pool is flushed, so a Node changed by many insertions is written once per batch.
+ * A frame can hold a decoded Node, the bytes of its page or both: queries read nodes through NodeViews over the
+ * page bytes, while insertions modify decoded Nodes. Each form is only produced when it is first needed.
+ */
+public class BufferPool {
+        public static final int DEFAULT_CAPACITY = 1024;
+        public static final int MIN_CAPACITY = 16;
+        private static final int WRITE_BACK_BATCH = 32; // Max number of dirty Nodes written back during an eviction
+
+        private static int capacity = DEFAULT_CAPACITY;
+        private static final ArrayList<Frame> frames = new ArrayList<>();
+        private static final HashMap<Long, Frame> pageTable = new HashMap<>(); // nodeId -> frame caching the Node
+        private static final LinkedHashSet<Frame> dirtyFrames = new LinkedHashSet<>(); // Frames to be written back
+        private static int clockHand = 0;
+
+        private static long hits = 0;
+        private static long misses = 0;
+        private static long seekDistance = 0; // Sum of the distances in pages between the pages of consecutive misses
+        private static long lastMissPage = -1;
+        private static long evictions = 0;
+        private static long writes = 0;
+
+        /**
+         * A slot of the pool holding one cached Node
+         */
+        private static class Frame {
+                private long nodeId;
+                private Node node; // null until the Node is fetched decoded
+                private ByteBuffer page; // null until a view of the Node is fetched
+                private boolean pageStale; // Whether the Node may have been modified after page was last encoded
+                private int pinCount;
+                private int nodePinCount; // The pins taken by fetchNode, whose Node may be modified until it is unpinned
+                private boolean dirty;
+                private boolean referenced; // The CLOCK reference bit
+        }
+
+        /**
+         * Changes the maximum number of Nodes the pool can hold. The pool is flushed and emptied.
+         * @param newCapacity the new capacity of the pool
+         */
+        public static synchronized void setCapacity(int newCapacity)
+        {
+                if (newCapacity < MIN_CAPACITY)
+                {
+                        throw new IllegalArgumentException("The buffer pool must hold at least " + MIN_CAPACITY + " nodes");
+                }
+                clear();
+                capacity = newCapacity;
+        }
+
+        public static synchronized int getCapacity() { return capacity; }
+
+        /**
+         * Returns a Node and pins it, so that it stays in the pool until it is unpinned. The caller may modify the
+         * Node until it unpins it, so the cached page of the Node is treated as stale from now on.
+         * @param nodeId of the Node
+         * @return the Node with the given id or null if it doesn't exist
+         */
+        public static synchronized Node fetchNode(long nodeId)
+        {
+                Frame frame = pageTable.get(nodeId);
+                if (frame != null)
+                {
+                        hits++;
+                        frame.pinCount++;
+                        frame.nodePinCount++;
+                        frame.referenced = true;
+                        if (frame.node == null)
+                        {
+                                frame.node = Node.readFrom(frame.page, 0);
+                        }
+                        frame.pageStale = true;
+                        return frame.node;
+                }
+                countMiss(nodeId);
+                Node node = FileHandler.getNode(nodeId);
+                if (node == null)
+                {
+                        return null;
+                }
+                frame = cache(nodeId, node, null);
+                frame.pinCount = 1;
+                frame.nodePinCount = 1;
+                return node;
+        }
+
+        /**
+         * Returns a read-only view of a Node and pins it, so that it stays in the pool until it is unpinned.
+         * If the cached Node may have been modified, it is encoded again before the view is taken. While the Node is
+         * pinned by fetchNode, every view encodes it again, so a view is a snapshot of the Node as it was when the
+         * view was taken. The pool doesn't lock Nodes, so a view must not be taken by another thread while a Node
+         * is being modified.
+         * @param nodeId of the Node
+         * @return a view of the Node with the given id or null if it doesn't exist
+         */
+        public static synchronized NodeView fetchView(long nodeId)
+        {
+                Frame frame = pageTable.get(nodeId);
+                if (frame != null)
+                {
+                        hits++;
+                        if (frame.page == null || frame.pageStale || frame.nodePinCount > 0)
+                        {
+                                // A new buffer is used, so that views taken before the modification stay consistent
+                                frame.page = ByteBuffer.allocate(IndexMetaData.getPageSize());
+                                frame.node.writeTo(frame.page, 0);
+                                frame.pageStale = false;
+                        }
+                }
+                else
+                {
+                        countMiss(nodeId);
+                        ByteBuffer page = FileHandler.getNodePage(nodeId);
+                        if (page == null)
+                        {
+                                return null;
+                        }
+                        frame = cache(nodeId, null, page);
+                }
+                frame.pinCount++;
+                frame.referenced = true;
+                return new NodeView(frame.page);
+        }
+
+        /**
+         * Releases a Node fetched with fetchNode
+         * @param node to be unpinned
+         * @param modified whether the Node was changed while it was pinned
+         */
+        public static synchronized void unpinNode(Node node, boolean modified)
+        {
+                Frame frame = pageTable.get(node.getId());
+                if (frame == null || frame.nodePinCount == 0)
+                {
+                        throw new IllegalStateException("Node " + node.getId() + " is not pinned");
+                }
+                frame.pinCount--;
+                frame.nodePinCount--;
+                if (modified)
+                {
+                        markDirty(frame);
+                }
+        }
+
+        /**
+         * Releases a view fetched with fetchView
+         * @param view to be unpinned
+         */
+        public static synchronized void unpinView(NodeView view)
+        {
+                Frame frame = pageTable.get(view.getId());
+                if (frame == null || frame.pinCount == 0)
+                {
+                        throw new IllegalStateException("Node " + view.getId() + " is not pinned");
+                }
+                frame.pinCount--;
+        }
+
+        /**
+         * Allocates a page for a new Node and caches it as dirty, so that it is written together with the other
+         * changes of the insertion that created it
+         * @param newNode to be cached
+         */
+        public static synchronized void insertNode(Node newNode)
+        {
+                FileHandler.allocatePage(newNode.getId());
+                markDirty(cache(newNode.getId(), newNode, null));
+        }
+
+        /**
+         * Allocates a page for a new root Node, caches it as dirty and makes it the root of the index
+         * @param newRootNode the new root Node
+         */
+        public static synchronized void setRootNode(Node newRootNode)
+        {
+                insertNode(newRootNode);
+                FileHandler.setRoot(newRootNode);
+        }
+
+        /**
+         * Removes a Node that is no longer referenced by the tree from the pool, without writing it back,
+         * and frees its page
+         * @param nodeId of the Node
+         */
+        public static synchronized void freeNode(long nodeId)
+        {
+                Frame frame = pageTable.remove(nodeId);
+                if (frame != null)
+                {
+                        if (frame.pinCount > 0)
+                        {
+                                throw new IllegalStateException("Node " + nodeId + " is pinned");
+                        }
+                        dirtyFrames.remove(frame);
+                        frame.nodeId = 0;
+                        frame.node = null;
+                        frame.page = null;
+                        frame.dirty = false;
+                        frame.referenced = false;
+                }
+                FileHandler.freeNode(nodeId);
+        }
+
+        /**
+         * Writes all dirty Nodes back to the index file, in page order
+         */
+        public static synchronized void flush()
+        {
+                writeBack(new ArrayList<>(dirtyFrames));
+        }
+
+        /**
+         * @return the number of cached Nodes that are modified and not yet written back
+         */
+        public static synchronized int getDirtyCount() { return dirtyFrames.size(); }
+
+        /**
+         * Flushes the pool and removes every Node from it
+         */
+        public static synchronized void clear()
+        {
+                flush();
+                frames.clear();
+                dirtyFrames.clear();
+                pageTable.clear();
+                clockHand = 0;
+        }
+
+        public static synchronized long getHits() { return hits; }
+        public static synchronized long getMisses() { return misses; }
+        public static synchronized long getSeekDistance() { return seekDistance; }
+        public static synchronized long getEvictions() { return evictions; }
+        public static synchronized long getWrites() { return writes; }
+
+        public static synchronized void resetStatistics()
+        {
+                hits = 0;
+                misses = 0;
+                seekDistance = 0;
+                lastMissPage = -1;
+                evictions = 0;
+                writes = 0;
+        }
+
+        public static synchronized String getStatistics()
+        {
+                long accesses = hits + misses;
+                return "BufferPool(capacity(" + capacity + "), hits(" + hits + "), misses(" + misses + "), " +
+                        "seekDistance(" + seekDistance + "), " +
+                        "hitRatio(" + (accesses == 0 ? 0 : (double) hits / accesses) + "), " +
+                        "evictions(" + evictions + "), writes(" + writes + "))";
+        }
+
+        /**
+         * Counts a miss and how far its page is from the page of the previous miss, which tells how close the
+         * reads of a workload come to a sequential scan of the index file
+         * @param nodeId of the missed Node
+         */
+        private static void countMiss(long nodeId)
+        {
+                misses++;
+                long page = NodeDirectory.getPage(nodeId);
+                if (lastMissPage >= 0)
+                {
+                        seekDistance += Math.abs(page - lastMissPage);
+                }
+                lastMissPage = page;
+        }
+
+        private static void markDirty(Frame frame)
+        {
+                frame.dirty = true;
+                frame.pageStale = true;
+                dirtyFrames.add(frame);
+        }
+
+        /**
+         * Places an unpinned Node in a free frame, evicting another Node if the pool is full
+         * @param nodeId of the Node to be cached
+         * @param node the decoded Node, or null if only its page is cached
+         * @param page the bytes of the Node's page, or null if only the decoded Node is cached
+         * @return the frame holding the Node
+         */
+        private static Frame cache(long nodeId, Node node, ByteBuffer page)
+        {
+                Frame frame = frames.size() < capacity ? newFrame() : evict();
+                frame.nodeId = nodeId;
+                frame.node = node;
+                frame.page = page;
+                frame.pageStale = false;
+                frame.pinCount = 0;
+                frame.nodePinCount = 0;
+                frame.dirty = false;
+                frame.referenced = true;
+                pageTable.put(nodeId, frame);
+                return frame;
+        }
+
+        private static Frame newFrame()
+        {
+                Frame frame = new Frame();
+                frames.add(frame);
+                return frame;
+        }
+
+        /**
+         * Chooses a victim frame using the CLOCK policy and empties it. If the victim is dirty, it is written
+         * back together with a batch of other dirty unpinned Nodes.
+         * @return the emptied frame
+         */
+        private static Frame evict()
+        {
+                for (int i = 0; i < 2 * frames.size(); ++i)
+                {
+                        Frame frame = frames.get(clockHand);
+                        clockHand = (clockHand + 1) % frames.size();
+                        if (frame.pinCount > 0)
+                        {
+                                continue;
+                        }
+                        if (frame.referenced)
+                        {
+                                // Give the Node a second chance
+                                frame.referenced = false;
+                                continue;
+                        }
+                        if (frame.dirty)
+                        {
+                                writeBack(collectWriteBackBatch(frame));
+                        }
+                        pageTable.remove(frame.nodeId);
+                        frame.node = null;
+                        frame.page = null;
+                        evictions++;
+                        return frame;
+                }
+                throw new IllegalStateException("All " + capacity + " nodes of the buffer pool are pinned");
+        }
+
+        /**
+         * @param victim the dirty frame that is about to be evicted
+         * @return the victim along with up to WRITE_BACK_BATCH - 1 other dirty unpinned frames
+         */
+        private static ArrayList<Frame> collectWriteBackBatch(Frame victim)
+        {
+                ArrayList<Frame> batch = new ArrayList<>();
+                batch.add(victim);
+                for (Frame frame : dirtyFrames)
+                {
+                        if (batch.size() == WRITE_BACK_BATCH)
+                        {
+                                break;
+                        }
+                        if (frame != victim && frame.pinCount == 0)
+                        {
+                                batch.add(frame);
+                        }
+                }
+                return batch;
+        }
+
+        /**
+         * Writes the Nodes of the given frames to the index file, in page order, and marks them as clean
+         * @param batch the dirty frames to be written
+         */
+        private static void writeBack(ArrayList<Frame> batch)
+        {
+                batch.sort(Comparator.comparingLong(frame -> NodeDirectory.getPage(frame.nodeId)));
+                for (Frame frame : batch)
+                {
+                        FileHandler.updateNode(frame.node);
+                        frame.dirty = false;
+                        dirtyFrames.remove(frame);
+                        writes++;
+                }
+        }
+}
@@ -0,0 +1,169 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The encodings shared by the serialised nodes, entries and records and by the file headers and log records.
+ * Every method reads or writes at an absolute offset, so the position of a buffer never changes and one buffer can be
+ * reused for many objects without any intermediate arrays.
+ */
+public final class ByteCodec
+{
+        public static final int MAX_VAR_LONG_BYTES = 10; // ceil(64 / 7)
+
+        private ByteCodec()
+        {
+        }
+
+        /**
+         * Writes an unsigned variable-length long: 7 bits per byte, least significant group first, with the high bit
+         * set on every byte except the last one
+         * @param buffer to write to
+         * @param offset of the buffer where writing starts
+         * @param value to be written, treated as unsigned
+         * @return the offset right after the written value
+         */
+        public static int putVarLong(ByteBuffer buffer, int offset, long value)
+        {
+                while ((value & ~0x7FL) != 0)
+                {
+                        buffer.put(offset++, (byte) ((value & 0x7F) | 0x80));
+                        value >>>= 7;
+                }
+                buffer.put(offset++, (byte) value);
+                return offset;
+        }
+
+        public static long getVarLong(ByteBuffer buffer, int offset)
+        {
+                long result = 0;
+                for (int shift = 0; shift < Long.SIZE; shift += 7)
+                {
+                        byte b = buffer.get(offset++);
+                        result |= (long) (b & 0x7F) << shift;
+                        if ((b & 0x80) == 0)
+                        {
+                                return result;
+                        }
+                }
+                throw new IllegalArgumentException("Malformed variable-length long");
+        }
+
+        /**
+         * @param value treated as unsigned
+         * @return the number of bytes putVarLong writes for the value
+         */
+        public static int varLongBytes(long value)
+        {
+                return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7);
+        }
+
+        /**
+         * Maps signed longs to unsigned ones so that values close to zero get short varints: 0, -1, 1, -2 -> 0, 1, 2, 3
+         */
+        public static long zigZagEncode(long value)
+        {
+                return (value << 1) ^ (value >> (Long.SIZE - 1));
+        }
+
+        public static long zigZagDecode(long value)
+        {
+                return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Used to detect torn or corrupt writes of the file headers
+         * @param bytes the serialised header
+         * @param length the number of bytes of the header covered by the checksum
+         * @return the CRC32 checksum of the first length bytes
+         */
+        public static long checksum(byte[] bytes, int length)
+        {
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, length);
+                return crc.getValue();
+        }
+
+        /**
+         * Writes the UTF-8 encoding of a string one character at a time, without encoding it into an array first.
+         * An unpaired surrogate is written as '?', like String.getBytes does.
+         * @param buffer to write to
+         * @param offset of the buffer where writing starts
+         * @param string to be written
+         * @return the offset right after the written bytes, which is offset + utf8Length(string)
+         */
+        public static int putUtf8(ByteBuffer buffer, int offset, String string)
+        {
+                for (int i = 0; i < string.length(); ++i)
+                {
+                        char c = string.charAt(i);
+                        if (c < 0x80)
+                        {
+                                buffer.put(offset++, (byte) c);
+                        }
+                        else if (c < 0x800)
+                        {
+                                buffer.put(offset++, (byte) (0xC0 | c >> 6));
+                                buffer.put(offset++, (byte) (0x80 | c & 0x3F));
+                        }
+                        else if (Character.isHighSurrogate(c) && i + 1 < string.length() &&
+                                Character.isLowSurrogate(string.charAt(i + 1)))
+                        {
+                                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                                buffer.put(offset++, (byte) (0xF0 | codePoint >> 18));
+                                buffer.put(offset++, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                                buffer.put(offset++, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                                buffer.put(offset++, (byte) (0x80 | codePoint & 0x3F));
+                        }
+                        else if (Character.isSurrogate(c))
+                        {
+                                buffer.put(offset++, (byte) '?');
+                        }
+                        else
+                        {
+                                buffer.put(offset++, (byte) (0xE0 | c >> 12));
+                                buffer.put(offset++, (byte) (0x80 | c >> 6 & 0x3F));
+                                buffer.put(offset++, (byte) (0x80 | c & 0x3F));
+                        }
+                }
+                return offset;
+        }
+
+        /**
+         * Counts the bytes of the UTF-8 encoding of a string without encoding it
+         * @param string to be measured
+         * @return the number of bytes putUtf8 writes for the string
+         */
+        public static int utf8Length(String string)
+        {
+                int length = 0;
+                for (int i = 0; i < string.length(); ++i)
+                {
+                        char c = string.charAt(i);
+                        if (c < 0x80)
+                        {
+                                length += 1;
+                        }
+                        else if (c < 0x800)
+                        {
+                                length += 2;
+                        }
+                        else if (Character.isHighSurrogate(c) && i + 1 < string.length() &&
+                                Character.isLowSurrogate(string.charAt(i + 1)))
+                        {
+                                length += 4;
+                                ++i;
+                        }
+                        else if (Character.isSurrogate(c))
+                        {
+                                length += 1; // An unpaired surrogate is encoded as '?'
+                        }
+                        else
+                        {
+                                length += 3;
+                        }
+                }
+                return length;
+        }
+}
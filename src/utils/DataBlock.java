@@ -0,0 +1,165 @@
+package utils;
+
+import tree.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A block of the data file using a slotted page layout:
+ * a header, followed by a directory of slots growing forwards and a heap of records growing backwards from the
+ * end of the block. Every slot holds the offset and the length of one record in the heap.
+ * A record is located by a single long, holding the id of its block and its slot, see toLocator.
+ */
+public class DataBlock {
+        // (numberOfSlots, heapStart)
+        public static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+        // (recordOffset, recordLength), both unsigned since blocks are at most 64KB
+        public static final int SLOT_BYTES = Short.BYTES + Short.BYTES;
+        // A block of at most 64KB can't hold more than 2^16 slots
+        private static final int SLOT_BITS = 16;
+
+        private final ByteBuffer block;
+
+        /**
+         * Creates an empty block
+         * @param blockSize the size of the block in bytes
+         */
+        public DataBlock(int blockSize)
+        {
+                block = ByteBuffer.allocate(blockSize);
+                block.putInt(0, 0);
+                block.putInt(Integer.BYTES, blockSize);
+        }
+
+        /**
+         * Wraps a block read from the data file
+         * @param blockAsBytes the bytes of the block
+         */
+        public DataBlock(byte[] blockAsBytes)
+        {
+                block = ByteBuffer.wrap(blockAsBytes);
+        }
+
+        /**
+         * @param blockId of the block holding the record
+         * @param slot of the record in the block
+         * @return the locator of the record
+         */
+        public static long toLocator(long blockId, int slot)
+        {
+                return blockId << SLOT_BITS | slot;
+        }
+
+        public static long blockIdOf(long locator)
+        {
+                return locator >>> SLOT_BITS;
+        }
+
+        public static int slotOf(long locator)
+        {
+                return (int) (locator & ((1 << SLOT_BITS) - 1));
+        }
+
+        public int getNumberOfSlots()
+        {
+                return block.getInt(0);
+        }
+
+        private int getHeapStart()
+        {
+                return block.getInt(Integer.BYTES);
+        }
+
+        /**
+         * @return the number of bytes between the slot directory and the record heap
+         */
+        public int getFreeSpace()
+        {
+                return getHeapStart() - HEADER_BYTES - getNumberOfSlots() * SLOT_BYTES;
+        }
+
+        /**
+         * @param recordLength the length of the serialised record
+         * @return whether the record and its slot fit in the free space of the block
+         */
+        public boolean hasSpaceFor(int recordLength)
+        {
+                return recordLength + SLOT_BYTES <= getFreeSpace();
+        }
+
+        /**
+         * Serialises a record directly into the heap and adds a slot for it
+         * @param record to be stored
+         * @return the slot of the record
+         */
+        public int addRecord(Record record)
+        {
+                int recordLength = record.getByteSize();
+                if (!hasSpaceFor(recordLength))
+                {
+                        throw new IllegalArgumentException("record doesn't fit in block");
+                }
+                int slot = getNumberOfSlots(),
+                        recordOffset = getHeapStart() - recordLength,
+                        slotOffset = HEADER_BYTES + slot * SLOT_BYTES;
+
+                record.writeTo(block, recordOffset);
+                block.putShort(slotOffset, (short) recordOffset);
+                block.putShort(slotOffset + Short.BYTES, (short) recordLength);
+                block.putInt(0, slot + 1);
+                block.putInt(Integer.BYTES, recordOffset);
+
+                return slot;
+        }
+
+        /**
+         * @param slot of the record
+         * @return the Record stored in the slot
+         */
+        public Record getRecord(int slot)
+        {
+                return Record.readFrom(block, getRecordOffset(slot));
+        }
+
+        private int getRecordOffset(int slot)
+        {
+                if (slot < 0 || slot >= getNumberOfSlots())
+                {
+                        throw new IndexOutOfBoundsException("slot " + slot + " doesn't exist");
+                }
+                return Short.toUnsignedInt(block.getShort(HEADER_BYTES + slot * SLOT_BYTES));
+        }
+
+        /**
+         * Decodes only the id of the Record stored in a slot
+         * @param slot of the record
+         * @return the id of the Record
+         */
+        public long getRecordId(int slot)
+        {
+                return Record.readId(block, getRecordOffset(slot));
+        }
+
+        /**
+         * @return the Records of every slot, in slot order
+         */
+        public ArrayList<Record> getRecords()
+        {
+                int numberOfSlots = getNumberOfSlots();
+                ArrayList<Record> records = new ArrayList<>(numberOfSlots);
+                for (int slot = 0; slot < numberOfSlots; ++slot)
+                {
+                        records.add(getRecord(slot));
+                }
+                return records;
+        }
+
+        /**
+         * @return the bytes of the block, as they are stored in the data file
+         */
+        public byte[] toBytes()
+        {
+                return block.array();
+        }
+}
@@ -1,78 +1,130 @@
 package utils;
 
-import tree.Record;
-
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * Contains the Meta Data of the data file
  */
 public class DataMetaData {
-        public static final int MAX_RECORDS_IN_BLOCK = FileHandler.BLOCK_SIZE / Record.BYTES;
+        public static final int PAGE_SIZE = 4 * 1024; // Block sizes are multiples of the OS page size
+        public static final int MIN_BLOCK_SIZE = 4 * 1024;
+        public static final int MAX_BLOCK_SIZE = 64 * 1024;
+        public static final int DEFAULT_BLOCK_SIZE = 8 * 1024;
 
         private static long numberOfBlocks = 1;
         private static long numberOfRecords = 0;
+        private static int blockSize = DEFAULT_BLOCK_SIZE;
 
-        public static final int BYTES = Long.BYTES + Long.BYTES;
+        private static final int MAGIC = 0x52535444; // "RSTD"
+        public static final int VERSION = 3;
+        // (magic, version, blockSize, numberOfBlocks, numberOfRecords, checksum)
+        public static final int BYTES = 2 * Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES + Long.BYTES;
 
+        public static int getBlockSize() { return blockSize; }
         public static long getNumberOfBlocks() { return numberOfBlocks; }
         public static long getNumberOfRecords() { return numberOfRecords; }
         public static void addOneBlock() { numberOfBlocks++; }
         public static void addOneRecord() { numberOfRecords++; }
+        public static void addRecords(int records) { numberOfRecords += records; }
+
+        /**
+         * Restores the Meta Data of an empty data file
+         */
+        public static void reset()
+        {
+                reset(DEFAULT_BLOCK_SIZE);
+        }
 
+        /**
+         * Restores the Meta Data of an empty data file with the given block size
+         * @param newBlockSize the size of the blocks in bytes, a multiple of PAGE_SIZE between MIN_BLOCK_SIZE
+         *                     and MAX_BLOCK_SIZE
+         */
+        public static void reset(int newBlockSize)
+        {
+                if (newBlockSize < MIN_BLOCK_SIZE || newBlockSize > MAX_BLOCK_SIZE || newBlockSize % PAGE_SIZE != 0)
+                {
+                        throw new IllegalArgumentException("The block size must be a multiple of " + PAGE_SIZE +
+                                " between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + " bytes");
+                }
+                numberOfBlocks = 1;
+                numberOfRecords = 0;
+                blockSize = newBlockSize;
+        }
+
+        /**
+         * Writes the in-memory Meta Data to the header of the data file
+         */
         public static void write()
         {
-                byte[] block = new byte[FileHandler.BLOCK_SIZE];
-                System.arraycopy(toBytes(), 0, block, 0, BYTES);
+                write(toBytes());
+        }
+
+        /**
+         * Writes serialised Meta Data to the header of the data file
+         * @param dataMetaDataAsBytes the Meta Data returned by toBytes, possibly of an earlier state of the file
+         */
+        public static void write(byte[] dataMetaDataAsBytes)
+        {
+                byte[] block = new byte[blockSize];
+                System.arraycopy(dataMetaDataAsBytes, 0, block, 0, BYTES);
                 try {
-                        RandomAccessFile raf = new RandomAccessFile(FileHandler.DATA_FILE_NAME, "rw");
-                        raf.seek(0);
-                        raf.write(block);
+                        StorageSession.writeFully(FileHandler.getSession().getDataChannel(), ByteBuffer.wrap(block), 0);
                 } catch (IOException e) {
                         e.printStackTrace();
                 }
         }
 
-        public static void read()
+        /**
+         * Loads the Meta Data from the header of the data file
+         * @throws IOException if the header can't be read, has an unknown format or is corrupt
+         */
+        public static void read() throws IOException
         {
                 byte[] dataMetaDataAsBytes = new byte[BYTES];
-                try {
-                        RandomAccessFile raf = new RandomAccessFile(FileHandler.DATA_FILE_NAME, "r");
-                        raf.seek(0);
-                        raf.readFully(dataMetaDataAsBytes);
-                } catch (IOException e) {
-                        e.printStackTrace();
-                }
+                StorageSession.readFully(FileHandler.getSession().getDataChannel(), ByteBuffer.wrap(dataMetaDataAsBytes), 0);
                 fromBytes(dataMetaDataAsBytes);
         }
 
-
         public static byte[] toBytes()
         {
-                byte[] dataMetaDataAsBytes = new byte[BYTES],
-                        numberOfBlocksAsBytes = ByteConvertible.longToBytes(numberOfBlocks),
-                        numberOfRecordsAsBytes = ByteConvertible.longToBytes(numberOfRecords);
-                int destPos = 0;
+                return toBytes(numberOfBlocks, numberOfRecords);
+        }
 
-                System.arraycopy(numberOfBlocksAsBytes, 0, dataMetaDataAsBytes, destPos, Long.BYTES);
-                destPos += Long.BYTES;
-                System.arraycopy(numberOfRecordsAsBytes, 0, dataMetaDataAsBytes, destPos, Long.BYTES);
+        /**
+         * Serialises the Meta Data of an earlier state of the data file, with fewer blocks than the in-memory ones
+         * @param numberOfBlocks the number of blocks of that state
+         * @param numberOfRecords the number of Records in these blocks
+         * @return the serialised Meta Data
+         */
+        public static byte[] toBytes(long numberOfBlocks, long numberOfRecords)
+        {
+                ByteBuffer dataMetaDataAsBytes = ByteBuffer.allocate(BYTES);
+                dataMetaDataAsBytes.putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putInt(blockSize)
+                        .putLong(numberOfBlocks)
+                        .putLong(numberOfRecords);
+                dataMetaDataAsBytes.putLong(ByteCodec.checksum(dataMetaDataAsBytes.array(), BYTES - Long.BYTES));
 
-                return dataMetaDataAsBytes;
+                return dataMetaDataAsBytes.array();
         }
 
-        public static void fromBytes(byte[] bytes)
+        public static void fromBytes(byte[] bytes) throws IOException
         {
-                byte[] numberOfBlocksAsBytes = new byte[Long.BYTES],
-                        numberOfRecordsAsBytes = new byte[Long.BYTES];
-                int srcPos = 0;
-
-                System.arraycopy(bytes, srcPos, numberOfBlocksAsBytes, 0, Long.BYTES);
-                srcPos += Long.BYTES;
-                System.arraycopy(bytes, srcPos, numberOfRecordsAsBytes, 0, Long.BYTES);
+                ByteBuffer dataMetaDataAsBytes = ByteBuffer.wrap(bytes);
+                if (dataMetaDataAsBytes.getInt() != MAGIC || dataMetaDataAsBytes.getInt() != VERSION)
+                {
+                        throw new IOException("Unknown data file format");
+                }
+                if (dataMetaDataAsBytes.getLong(BYTES - Long.BYTES) != ByteCodec.checksum(bytes, BYTES - Long.BYTES))
+                {
+                        throw new IOException("The data file header is corrupt");
+                }
 
-                numberOfBlocks = ByteConvertible.bytesToLong(numberOfBlocksAsBytes);
-                numberOfRecords = ByteConvertible.bytesToLong(numberOfRecordsAsBytes);
+                blockSize = dataMetaDataAsBytes.getInt();
+                numberOfBlocks = dataMetaDataAsBytes.getLong();
+                numberOfRecords = dataMetaDataAsBytes.getLong();
         }
 }
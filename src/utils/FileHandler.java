@@ -1,16 +1,22 @@
 package utils;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import tree.*;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Contains functionality for reading from and writing to ROM
@@ -19,38 +25,528 @@ public class FileHandler {
 
         public static final String DATA_FILE_NAME = "datafile.dat";
         public static final String INDEX_FILE_NAME = "indexfile.dat";
+        public static final String DIRECTORY_FILE_NAME = "indexfile.dir";
+        public static final String LOG_FILE_NAME = "indexfile.wal";
+        public static final String ID_INDEX_FILE_NAME = "idindex.dat";
         public static final String OSM_FILE_PATH = "map.osm";
         public static final int DIMENSIONS = 2;
-        public static final int BLOCK_SIZE = Integer.BYTES + 2 * Record.BYTES; // 32 * 1024
+
+        private static Path directory = Paths.get(""); // The directory containing the data and index files
+        private static final ThreadLocal<ByteBuffer> PAGE_BUFFER = new ThreadLocal<>(); // See getPageBuffer()
+        public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+        public static final int DEFAULT_GROUP_COMMIT_SIZE = 16;
+        public static final long MAX_LOG_SIZE = 16L << 20; // Log bytes after which a commit writes a checkpoint
+        public static final int CRASH_EXIT_CODE = 86; // The exit code of a JVM stopped by crashPoint
+
+        private static StorageSession session; // The open data, index, directory and log files
+        // The Meta Data are kept in memory and written to the file headers only at checkpoints. In between, every
+        // commit record of the log holds a copy of them.
+        private static int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL; // Commits between checkpoints
+        private static int commitsSinceCheckpoint = 0;
+        private static int groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE; // Commits per forced write of the log
+        private static int commitsSinceSync = 0;
+        // The pages of the Nodes freed since the last checkpoint, by Node id. They are only added to the free chain at
+        // the next checkpoint, so a page is never reused while the log may still recover a version of the tree that
+        // references it.
+        private static final LinkedHashMap<Long, Long> freedPages = new LinkedHashMap<>();
+        // A free page starts with a zero node id, followed by the next page of the free chain
+        private static final int FREE_PAGE_BYTES = Long.BYTES + Long.BYTES;
 
         /**
-         * Initialises the .dat files
+         * @param fileName of one of the data and index files
+         * @return the path of the file inside the current directory
+         */
+        public static Path getPath(String fileName)
+        {
+                return directory.resolve(fileName);
+        }
+
+        /**
+         * Initialises the .dat files, using the default data file block size and index page size
          */
         public static void init()
         {
-                File indexfile = new File(INDEX_FILE_NAME),
-                        datafile = new File(DATA_FILE_NAME);
+                init(DataMetaData.DEFAULT_BLOCK_SIZE, IndexMetaData.DEFAULT_PAGE_SIZE);
+        }
+
+        /**
+         * Initialises the .dat files
+         * @param blockSize the size of the data file blocks in bytes
+         * @param pageSize the size of the index file pages in bytes, which determines the fanout of the tree
+         */
+        public static void init(int blockSize, int pageSize)
+        {
+                close();
+                File indexfile = getPath(INDEX_FILE_NAME).toFile(),
+                        datafile = getPath(DATA_FILE_NAME).toFile(),
+                        logfile = getPath(LOG_FILE_NAME).toFile(),
+                        idIndexFile = getPath(ID_INDEX_FILE_NAME).toFile();
                 indexfile.delete();
                 datafile.delete();
+                logfile.delete();
+                idIndexFile.delete();
+                NodeDirectory.clear();
 
-                DataMetaData.write();
-                IndexMetaData.write();
+                DataMetaData.reset(blockSize);
+                IndexMetaData.reset(pageSize);
+                checkpoint();
         }
 
         /**
-         * Writes a new Node to the index file
-         * @param newNode to be written
+         * Opens the existing data and index files of the given directory, loads their Meta Data and the
+         * NodeDirectory, recovers the changes committed to the log after the last checkpoint and checks that the
+         * files are consistent with each other
+         * @param path of the directory containing the files
+         * @throws IOException if a file is missing, can't be read or doesn't match its Meta Data
          */
-        public static void insertNode(Node newNode)
+        public static synchronized void open(String path) throws IOException
         {
+                close();
+                directory = Paths.get(path);
+                for (String fileName : new String[]{DATA_FILE_NAME, INDEX_FILE_NAME, DIRECTORY_FILE_NAME})
+                {
+                        if (!Files.isRegularFile(getPath(fileName)))
+                        {
+                                throw new FileNotFoundException(getPath(fileName) + " doesn't exist");
+                        }
+                }
                 try {
-                        FileOutputStream fos = new FileOutputStream(INDEX_FILE_NAME, true);
-                        fos.write(newNode.toBytes());
+                        IndexMetaData.read();
+                        DataMetaData.read();
+                        NodeDirectory.read();
+                        recover();
+                        if (getSession().getIdIndex().getNumberOfEntries() == 0 && DataMetaData.getNumberOfRecords() > 0)
+                        {
+                                // Files written before the record id index existed
+                                rebuildIdIndex();
+                        }
+
+                        if (getSession().getIndexChannel().size() != IndexMetaData.getNumOfPages() * IndexMetaData.getPageSize())
+                        {
+                                throw new IOException(getPath(INDEX_FILE_NAME) + " doesn't match its meta data");
+                        }
+                        if (getSession().getDataChannel().size() != DataMetaData.getNumberOfBlocks() * DataMetaData.getBlockSize())
+                        {
+                                throw new IOException(getPath(DATA_FILE_NAME) + " doesn't match its meta data");
+                        }
+                        Node rootNode = getNode(IndexMetaData.rootNodeId);
+                        if (rootNode == null || rootNode.getLevel() != IndexMetaData.getRootLevel())
+                        {
+                                throw new IOException(getPath(INDEX_FILE_NAME) + " doesn't contain a valid root node");
+                        }
+                } catch (IOException e) {
+                        close();
+                        throw e;
+                }
+        }
+
+        /**
+         * Returns the open storage session, opening the files if they are not open yet
+         * @return the current storage session
+         * @throws IOException if the files can't be opened
+         */
+        public static synchronized StorageSession getSession() throws IOException
+        {
+                if (session == null)
+                {
+                        session = new StorageSession();
+                }
+                return session;
+        }
+
+        /**
+         * Reopens the files read-only and memory maps the index file and optionally the data file.
+         * Used for serving queries on an index that is no longer modified.
+         * @param mapDataFile whether the data file is mapped too
+         */
+        public static synchronized void openMapped(boolean mapDataFile)
+        {
+                close();
+                try {
+                        session = new StorageSession(true);
+                        session.map(mapDataFile);
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+        }
+
+        /**
+         * Throws an IllegalStateException if the files are opened read-only
+         * @throws IOException if the files can't be opened
+         */
+        private static void checkWritable() throws IOException
+        {
+                if (getSession().isReadOnly())
+                {
+                        throw new IllegalStateException("The data and index files are opened read-only");
+                }
+        }
+
+        /**
+         * Replays the log left by a previous session, which didn't reach a checkpoint: the Meta Data of its last
+         * commit are restored, data blocks appended after that commit are dropped, the committed pages and
+         * directory changes are applied to the index and directory files and the committed frees are released
+         * @throws IOException if the log can't be read or holds corrupt Meta Data
+         */
+        private static void recover() throws IOException
+        {
+                WriteAheadLog log = getSession().getLog();
+                freedPages.clear();
+                if (log.recover(IndexMetaData.getPageSize()))
+                {
+                        IndexMetaData.fromBytes(log.getCommittedIndexMetaData());
+                        DataMetaData.fromBytes(log.getCommittedDataMetaData());
+                        for (Map.Entry<Long, Long> page : log.getPages().entrySet())
+                        {
+                                NodeDirectory.setPage(page.getKey(), page.getValue());
+                        }
+                        // The committed Meta Data don't include frees yet, even if the stopped checkpoint released them
+                        freedPages.putAll(log.getFreedPages());
+                }
+                // Blocks are appended before the Records in them are committed
+                long committedDataSize = DataMetaData.getNumberOfBlocks() * DataMetaData.getBlockSize();
+                if (getSession().getDataChannel().size() > committedDataSize)
+                {
+                        getSession().getDataChannel().truncate(committedDataSize);
+                }
+                // A compaction may have stopped between its checkpoint and the truncation of the index file
+                long committedIndexSize = IndexMetaData.getNumOfPages() * IndexMetaData.getPageSize();
+                if (getSession().getIndexChannel().size() > committedIndexSize)
+                {
+                        getSession().getIndexChannel().truncate(committedIndexSize);
+                }
+                checkpoint();
+        }
+
+        /**
+         * Changes how often the log is applied to the index file and the in-memory Meta Data are written to
+         * the file headers
+         * @param commits the number of commits between automatic checkpoints, or 0 to only checkpoint
+         *                explicitly and when the files are closed
+         */
+        public static synchronized void setCheckpointInterval(int commits)
+        {
+                if (commits < 0)
+                {
+                        throw new IllegalArgumentException("The checkpoint interval can't be negative");
+                }
+                checkpointInterval = commits;
+        }
+
+        /**
+         * Changes how many commits are grouped into one forced write of the log. Commits that are not forced yet
+         * are lost on a crash, but the recovered tree is still consistent.
+         * @param commits the number of commits per forced write, 1 to force every commit
+         */
+        public static synchronized void setGroupCommitSize(int commits)
+        {
+                if (commits < 1)
+                {
+                        throw new IllegalArgumentException("The group commit size must be positive");
+                }
+                groupCommitSize = commits;
+        }
+
+        /**
+         * Marks the end of a group of changes that leaves the index consistent, using the current data file
+         * Meta Data. Every changed Node must already be written, see BufferPool.flush().
+         */
+        public static void commit()
+        {
+                commit(DataMetaData.getNumberOfBlocks(), DataMetaData.getNumberOfRecords());
+        }
+
+        /**
+         * Marks the end of a group of changes that leaves the index consistent, by appending a commit record with
+         * the current index Meta Data to the log. Every commitSize commits, the data file and the log are forced to
+         * the storage device, and every checkpointInterval commits, or once the log exceeds MAX_LOG_SIZE bytes, a
+         * checkpoint is written, so that commits grouping many changes don't let the log grow without a bound.
+         * Every changed Node must already be written, see BufferPool.flush().
+         * @param numberOfBlocks the number of data file blocks whose Records are all indexed
+         * @param numberOfRecords the number of Records in these blocks
+         */
+        public static synchronized void commit(long numberOfBlocks, long numberOfRecords)
+        {
+                byte[] dataMetaData = DataMetaData.toBytes(numberOfBlocks, numberOfRecords);
+                boolean logFull = false;
+                try {
+                        checkWritable();
+                        WriteAheadLog log = getSession().getLog();
+                        crashPoint("commit.started");
+                        log.appendCommit(IndexMetaData.toBytes(), dataMetaData);
+                        crashPoint("commit.appended");
+                        if (++commitsSinceSync >= groupCommitSize)
+                        {
+                                sync();
+                        }
+                        logFull = log.size() > MAX_LOG_SIZE;
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+                if (checkpointInterval > 0 && (++commitsSinceCheckpoint >= checkpointInterval || logFull))
+                {
+                        checkpoint(dataMetaData);
+                }
+        }
+
+        /**
+         * Forces the data file and then the log to the storage device, so that every commit record written so far
+         * survives a crash along with the blocks it refers to
+         * @throws IOException if forcing fails
+         */
+        private static void sync() throws IOException
+        {
+                getSession().getDataChannel().force(false);
+                getSession().getLog().force();
+                commitsSinceSync = 0;
+        }
+
+        /**
+         * Applies the log to the index file and writes the in-memory Meta Data to the headers of the index and
+         * data files. Must be called when every changed Node is written and the index is consistent.
+         */
+        public static synchronized void checkpoint()
+        {
+                checkpoint(DataMetaData.toBytes());
+        }
+
+        /**
+         * Applies the log to the index file, writes the Meta Data to the file headers and the NodeDirectory to the
+         * directory file and empties the log. Until the log is emptied, a checkpoint stopped by a crash is redone by
+         * the recovery, so the log is committed first if it ends with records that are not committed yet.
+         * @param dataMetaData the serialised Meta Data of the data file to be written, which may lag behind the
+         *                     in-memory ones while blocks are appended ahead of the index
+         */
+        private static synchronized void checkpoint(byte[] dataMetaData)
+        {
+                try {
+                        WriteAheadLog log = getSession().getLog();
+                        boolean changed = !log.isEmpty() || !freedPages.isEmpty();
+                        if (log.hasUncommittedRecords())
+                        {
+                                log.appendCommit(IndexMetaData.toBytes(), dataMetaData);
+                        }
+                        if (!log.isEmpty())
+                        {
+                                sync();
+                                log.applyTo(getSession().getIndexChannel(), IndexMetaData.getPageSize());
+                        }
+                        crashPoint("checkpoint.applied");
+                        releaseFreedPages();
+                        IndexMetaData.write();
+                        DataMetaData.write(dataMetaData);
+                        NodeDirectory.write();
+                        getSession().getIdIndex().force();
+                        crashPoint("checkpoint.written");
+                        if (changed)
+                        {
+                                // The log is only emptied once the pages and headers it holds are durable
+                                getSession().getIndexChannel().force(false);
+                                getSession().getDataChannel().force(false);
+                                getSession().getDirectoryChannel().force(false);
+                                log.truncate();
+                        }
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+                commitsSinceCheckpoint = 0;
+        }
+
+        /**
+         * Adds the pages of the Nodes freed since the last checkpoint to the free chain. Each page is overwritten
+         * with a link to the previous first page of the chain. The frees are in the log, so if the checkpoint stops
+         * before the log is emptied, the recovery releases them again from the same committed Meta Data.
+         * @throws IOException if a page can't be written
+         */
+        private static void releaseFreedPages() throws IOException
+        {
+                ByteBuffer freePage = ByteBuffer.allocate(IndexMetaData.getPageSize());
+                for (Map.Entry<Long, Long> freed : freedPages.entrySet())
+                {
+                        long page = freed.getValue();
+                        freePage.clear();
+                        freePage.putLong(0, 0).putLong(Long.BYTES, IndexMetaData.getFreePageHead());
+                        StorageSession.writeFully(getSession().getIndexChannel(), freePage, page * IndexMetaData.getPageSize());
+                        NodeDirectory.setPage(freed.getKey(), 0);
+                        IndexMetaData.removeOneNode();
+                        IndexMetaData.pushFreePage(page);
+                }
+                freedPages.clear();
+        }
+
+        /**
+         * Rewrites the Nodes reachable from the root to the first pages of the index file, in depth first order so
+         * that every subtree is contiguous, and truncates the file after them. Free pages and unreachable Nodes are
+         * dropped. The moved pages and the dropped Nodes go through the log, so a compaction stopped by a crash is
+         * either recovered completely or not at all. Every changed Node must already be written, see BufferPool.clear().
+         */
+        public static synchronized void compact()
+        {
+                try {
+                        checkWritable();
+                        checkpoint();
+
+                        ArrayList<Long> liveNodes = new ArrayList<>();
+                        ArrayList<Long> pendingNodes = new ArrayList<>();
+                        pendingNodes.add(IndexMetaData.rootNodeId);
+                        WriteAheadLog log = getSession().getLog();
+                        while (!pendingNodes.isEmpty())
+                        {
+                                long nodeId = pendingNodes.remove(pendingNodes.size() - 1);
+                                ByteBuffer page = getNodePage(nodeId);
+                                if (page == null)
+                                {
+                                        throw new IllegalStateException("Node " + nodeId + " is referenced but doesn't exist");
+                                }
+                                NodeView node = new NodeView(page);
+                                if (!node.isLeaf())
+                                {
+                                        // Children are pushed in reverse, so they are visited in entry order
+                                        for (int i = node.size() - 1; i >= 0; --i)
+                                        {
+                                                pendingNodes.add(node.childId(i));
+                                        }
+                                }
+                                liveNodes.add(nodeId);
+                                log.appendPage(nodeId, liveNodes.size(), page);
+                        }
+
+                        HashSet<Long> unreachableNodes = new HashSet<>();
+                        for (long nodeId : NodeDirectory.getNodeIds())
+                        {
+                                unreachableNodes.add(nodeId);
+                        }
+                        for (int i = 0; i < liveNodes.size(); ++i)
+                        {
+                                NodeDirectory.setPage(liveNodes.get(i), i + 1);
+                                unreachableNodes.remove(liveNodes.get(i));
+                        }
+                        // Their pages now belong to live Nodes, so the recovery must drop them from the directory too
+                        for (long nodeId : unreachableNodes)
+                        {
+                                log.appendDirectory(nodeId, 0);
+                                NodeDirectory.setPage(nodeId, 0);
+                        }
+                        freedPages.clear();
+                        IndexMetaData.setNumOfNodes(liveNodes.size());
+                        IndexMetaData.clearFreePages();
+                        crashPoint("compact.remapped");
+                        commit();
+                        crashPoint("compact.committed");
+                        checkpoint();
+                        crashPoint("compact.checkpointed");
+                        getSession().getIndexChannel().truncate(IndexMetaData.getNumOfPages() * IndexMetaData.getPageSize());
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+        }
+
+        /**
+         * Stops the JVM at once, as a crash would, if the system property rstar.crashPoint names the given point.
+         * Nothing is forced or closed, so the files are left as the operating system holds them. The property is
+         * read every time, so that a test can set it once the tree it crashes is built, see RecoveryTest.
+         * @param name of the point reached
+         */
+        private static void crashPoint(String name)
+        {
+                if (name.equals(System.getProperty("rstar.crashPoint")))
+                {
+                        Runtime.getRuntime().halt(CRASH_EXIT_CODE);
+                }
+        }
+
+        /**
+         * Writes a checkpoint and closes the files of the current storage session, if any
+         */
+        public static synchronized void close()
+        {
+                if (session == null)
+                {
+                        return;
+                }
+                if (!session.isReadOnly())
+                {
+                        checkpoint();
+                }
+                try {
+                        session.close();
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+                session = null;
+        }
+
+        /**
+         * Returns a page sized buffer owned by the calling thread, which is reused for every node it writes or reads,
+         * so that the node codec doesn't allocate any arrays
+         * @return the cleared buffer of the calling thread
+         */
+        private static ByteBuffer getPageBuffer()
+        {
+                ByteBuffer pageBuffer = PAGE_BUFFER.get();
+                if (pageBuffer == null || pageBuffer.capacity() != IndexMetaData.getPageSize())
+                {
+                        pageBuffer = ByteBuffer.allocate(IndexMetaData.getPageSize());
+                        PAGE_BUFFER.set(pageBuffer);
+                }
+                pageBuffer.clear();
+                return pageBuffer;
+        }
+
+        /**
+         * Serialises a node into the page buffer of the calling thread. The buffer is zeroed first, so that no bytes
+         * of a previously encoded node end up in the unused part of the page.
+         * @param node to be serialised
+         * @return the page buffer holding the node
+         */
+        private static ByteBuffer encodeNode(Node node)
+        {
+                ByteBuffer nodeAsBytes = getPageBuffer();
+                Arrays.fill(nodeAsBytes.array(), (byte) 0);
+                node.writeTo(nodeAsBytes, 0);
+                return nodeAsBytes;
+        }
+
+        /**
+         * Assigns a page of the index file to a new Node and records it in the NodeDirectory, without writing the
+         * Node. The first page of the free chain is reused if there is one, otherwise a page is appended.
+         * The Node must be written with updateNode before the next commit, whose page record also logs its page.
+         * @param nodeId of the new Node
+         * @return the page of the Node
+         */
+        public static long allocatePage(long nodeId)
+        {
+                long page = IndexMetaData.getFreePageHead();
+                try {
+                        checkWritable();
+                        if (page != 0)
+                        {
+                                // Free pages are only written by checkpoints, so the link is read from the index file
+                                ByteBuffer freePage = ByteBuffer.allocate(FREE_PAGE_BYTES);
+                                StorageSession.readFully(getSession().getIndexChannel(), freePage,
+                                        page * IndexMetaData.getPageSize());
+                                IndexMetaData.popFreePage(freePage.getLong(Long.BYTES));
+                        }
+                        else
+                        {
+                                page = IndexMetaData.getNumOfPages();
+                        }
                         IndexMetaData.addOneNode();
+                        NodeDirectory.setPage(nodeId, page);
                 } catch (IOException e) {
                         e.printStackTrace();
                 }
-                IndexMetaData.write();
+                return page;
+        }
+
+        /**
+         * Writes a new Node to the next free page of the index file and records its page in the NodeDirectory
+         * @param newNode to be written
+         */
+        public static void insertNode(Node newNode)
+        {
+                allocatePage(newNode.getId());
+                updateNode(newNode);
         }
 
         /**
@@ -60,26 +556,94 @@ public class FileHandler {
          */
         public static Node getNode(long nodeId)
         {
-                IndexMetaData.read();
-                byte[] nodeAsBytes = new byte[Node.BYTES];
-                Node node;
+                ByteBuffer nodeAsBytes = getMappedNodePage(nodeId);
+                if (nodeAsBytes == null)
+                {
+                        nodeAsBytes = getPageBuffer();
+                        if (!readNodePage(nodeId, nodeAsBytes))
+                        {
+                                return null;
+                        }
+                }
+                return Node.readFrom(nodeAsBytes, 0);
+        }
+
+        /**
+         * Reads the page of a Node from the index file without decoding it. If the index file is memory mapped,
+         * the page isn't copied.
+         * @param nodeId of the Node to be read
+         * @return a read-only buffer over the mapped page or a new buffer holding the page of the Node, or null if
+         * it was not found
+         */
+        public static ByteBuffer getNodePage(long nodeId)
+        {
+                ByteBuffer nodeAsBytes = getMappedNodePage(nodeId);
+                if (nodeAsBytes == null)
+                {
+                        nodeAsBytes = ByteBuffer.allocate(IndexMetaData.getPageSize());
+                        if (!readNodePage(nodeId, nodeAsBytes))
+                        {
+                                return null;
+                        }
+                }
+                return nodeAsBytes;
+        }
+
+        /**
+         * Mapped sessions are read-only and opened after a checkpoint, so their log holds no pages and every page
+         * is read from the mapping
+         * @param nodeId of the Node to be read
+         * @return a read-only buffer over the page of the Node in the memory mapped index file, or null if the index
+         * file isn't mapped, the Node was not found or its page crosses a segment boundary of the mapping
+         */
+        private static ByteBuffer getMappedNodePage(long nodeId)
+        {
+                long page = NodeDirectory.getPage(nodeId);
                 try {
-                        RandomAccessFile raf = new RandomAccessFile(INDEX_FILE_NAME, "r");
-                        for (long i = 1; i <= IndexMetaData.getNumOfNodes(); ++i)
+                        MappedFile mappedIndex = getSession().getMappedIndex();
+                        if (mappedIndex == null || page == 0)
                         {
-                                raf.seek(i * Node.BYTES);
-                                raf.readFully(nodeAsBytes);
+                                return null;
+                        }
+                        return mappedIndex.slice(page * IndexMetaData.getPageSize(), IndexMetaData.getPageSize());
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
+                }
+        }
 
-                                node = Node.fromBytes(nodeAsBytes);
-                                if (node.getId() == nodeId)
-                                {
-                                        return node;
-                                }
+        /**
+         * @param nodeId of the Node to be read
+         * @param nodeAsBytes a page sized heap buffer to be filled with the page of the Node
+         * @return whether the Node was found and read
+         */
+        private static boolean readNodePage(long nodeId, ByteBuffer nodeAsBytes)
+        {
+                long page = NodeDirectory.getPage(nodeId);
+                if (page == 0)
+                {
+                        return false;
+                }
+                try {
+                        if (getSession().getLog().readPage(nodeId, nodeAsBytes))
+                        {
+                                return true;
+                        }
+                        MappedFile mappedIndex = getSession().getMappedIndex();
+                        if (mappedIndex != null)
+                        {
+                                mappedIndex.get(page * IndexMetaData.getPageSize(), nodeAsBytes.array());
+                        }
+                        else
+                        {
+                                StorageSession.readFully(getSession().getIndexChannel(), nodeAsBytes,
+                                        page * IndexMetaData.getPageSize());
                         }
                 } catch (IOException e) {
                         e.printStackTrace();
+                        return false;
                 }
-                return null;
+                return true;
         }
 
         /**
@@ -88,24 +652,35 @@ public class FileHandler {
          */
         public static void updateNode(Node updatedNode)
         {
-                IndexMetaData.read();
-                byte[] nodeAsBytes = new byte[Node.BYTES];
-                Node node;
+                long page = NodeDirectory.getPage(updatedNode.getId());
+                if (page == 0)
+                {
+                        return;
+                }
                 try {
-                        RandomAccessFile raf = new RandomAccessFile(INDEX_FILE_NAME, "rw");
-                        for (long i = 1; i <= IndexMetaData.getNumOfNodes(); ++i)
-                        {
-                                raf.seek(i * Node.BYTES);
-                                raf.readFully(nodeAsBytes);
+                        checkWritable();
+                        getSession().getLog().appendPage(updatedNode.getId(), page, encodeNode(updatedNode));
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+        }
 
-                                node = Node.fromBytes(nodeAsBytes);
-                                if (node.getId() == updatedNode.getId())
-                                {
-                                        raf.seek(i * Node.BYTES);
-                                        raf.write(updatedNode.toBytes());
-                                }
-                        }
-                        raf.close();
+        /**
+         * Frees the page of a Node that is no longer referenced by the tree. The free is logged and takes effect with
+         * the next commit, and the page is reused by later insertions after the next checkpoint.
+         * @param nodeId of the Node to be freed
+         */
+        public static synchronized void freeNode(long nodeId)
+        {
+                long page = NodeDirectory.getPage(nodeId);
+                if (page == 0 || freedPages.containsKey(nodeId))
+                {
+                        return;
+                }
+                try {
+                        checkWritable();
+                        getSession().getLog().appendFree(nodeId, page);
+                        freedPages.put(nodeId, page);
                 } catch (IOException e) {
                         e.printStackTrace();
                 }
@@ -118,8 +693,17 @@ public class FileHandler {
         public static void setRootNode(Node newRootNode)
         {
                 insertNode(newRootNode);
+                setRoot(newRootNode);
+        }
+
+        /**
+         * Updates the id and the level of the root Node in the index metadata
+         * @param newRootNode the new root Node, whose page is already allocated
+         */
+        public static void setRoot(Node newRootNode)
+        {
                 IndexMetaData.rootNodeId = newRootNode.getId();
-                IndexMetaData.write();
+                IndexMetaData.rootLevel = newRootNode.getLevel();
         }
 
         /**
@@ -128,7 +712,6 @@ public class FileHandler {
          */
         public static Node getRootNode()
         {
-                IndexMetaData.read();
                 return getNode(IndexMetaData.rootNodeId);
         }
 
@@ -138,152 +721,218 @@ public class FileHandler {
          */
         public static long getRootNodeId()
         {
-                IndexMetaData.read();
                 return IndexMetaData.rootNodeId;
         }
 
 
         /**
-         * Inserts given records into a block of memory and writes the block to the data file
-         * @param records to be written in the data file
+         * Writes a block after the last block of the data file
+         * @param block the block to be written
+         * @return the id of the written block
          */
-        private static void writeDataBlock(ArrayList<Record> records)
+        public static long appendDataBlock(DataBlock block)
         {
-                if (records.size() > DataMetaData.MAX_RECORDS_IN_BLOCK)
-                {
-                        throw new IllegalArgumentException("records array doesn't fit in block");
+                long blockId = DataMetaData.getNumberOfBlocks();
+                try {
+                        checkWritable();
+                        StorageSession.writeFully(getSession().getDataChannel(), ByteBuffer.wrap(block.toBytes()),
+                                blockId * DataMetaData.getBlockSize());
+                        indexRecordIds(block, blockId);
+
+                        DataMetaData.addOneBlock();
+                        DataMetaData.addRecords(block.getNumberOfSlots());
+                } catch (IOException e) {
+                        e.printStackTrace();
                 }
-                DataMetaData.read();
-                int numberOfRecords = records.size();
+                return blockId;
+        }
 
-                byte[] block = new byte[BLOCK_SIZE];
-                int destPos = 0;
+        /**
+         * Adds the Records of a data file block to the record id index
+         * @param block the block
+         * @param blockId of the block
+         * @throws IOException if the index can't be written
+         */
+        private static void indexRecordIds(DataBlock block, long blockId) throws IOException
+        {
+                RecordIdIndex idIndex = getSession().getIdIndex();
+                for (int slot = 0; slot < block.getNumberOfSlots(); ++slot)
+                {
+                        idIndex.put(block.getRecordId(slot), DataBlock.toLocator(blockId, slot));
+                }
+        }
 
-                System.arraycopy(ByteConvertible.intToBytes(numberOfRecords), 0, block, destPos, Integer.BYTES);
-                destPos += Integer.BYTES;
+        /**
+         * Indexes the id of every Record of the data file, for files written before the record id index existed
+         * @throws IOException if the index can't be written
+         */
+        private static void rebuildIdIndex() throws IOException
+        {
+                for (long blockId = 1; blockId < DataMetaData.getNumberOfBlocks(); ++blockId)
+                {
+                        indexRecordIds(readDataBlock(blockId), blockId);
+                }
+                getSession().getIdIndex().force();
+        }
 
-                for (Record record : records)
+        /**
+         * Looks up a Record by its id using the record id index, without scanning the data file
+         * @param recordId the id of the Record
+         * @return the Record with the given id, or null if there is no such Record
+         */
+        public static Record getRecordById(long recordId)
+        {
+                long recordLocator = getRecordLocator(recordId);
+                if (recordLocator == 0)
                 {
-                        System.arraycopy(record.toBytes(), 0, block, destPos, Record.BYTES);
-                        destPos += Record.BYTES;
+                        return null;
                 }
+                DataBlock block = readDataBlock(DataBlock.blockIdOf(recordLocator));
+                int slot = DataBlock.slotOf(recordLocator);
+                if (slot >= block.getNumberOfSlots() || block.getRecordId(slot) != recordId)
+                {
+                        return null;
+                }
+                return block.getRecord(slot);
+        }
 
+        /**
+         * Looks up the block and the slot of a Record in the record id index
+         * @param recordId of the Record
+         * @return the locator of the Record, see DataBlock.toLocator, or 0 if the id is not indexed in a committed block
+         */
+        public static long getRecordLocator(long recordId)
+        {
                 try {
-                        RandomAccessFile raf = new RandomAccessFile(DATA_FILE_NAME, "rw");
-
-                        raf.seek(DataMetaData.getNumberOfBlocks() * BLOCK_SIZE);
-                        raf.write(block);
-
-                        DataMetaData.addOneBlock();
-                        DataMetaData.write();
+                        long recordLocator = getSession().getIdIndex().get(recordId);
+                        // Blocks that were appended but never committed are dropped on recovery, so the locator is checked
+                        if (DataBlock.blockIdOf(recordLocator) >= DataMetaData.getNumberOfBlocks())
+                        {
+                                return 0;
+                        }
+                        return recordLocator;
                 } catch (IOException e) {
                         e.printStackTrace();
+                        return 0;
                 }
         }
 
         /**
-         *
+         * Reads a block of the data file
          * @param blockId of the block to be read
-         * @return list of records in the block with the given id
+         * @return the block with the given id
          */
-        public static ArrayList<Record> getDataBlock(long blockId)
+        public static DataBlock readDataBlock(long blockId)
         {
-                DataMetaData.read();
-                byte[] block = new byte[BLOCK_SIZE];
+                byte[] block = new byte[DataMetaData.getBlockSize()];
                 try {
-                        RandomAccessFile raf = new RandomAccessFile(DATA_FILE_NAME, "r");
-                        raf.seek(blockId * BLOCK_SIZE);
-                        raf.readFully(block);
+                        MappedFile mappedData = getSession().getMappedData();
+                        if (mappedData != null)
+                        {
+                                mappedData.get(blockId * block.length, block);
+                        }
+                        else
+                        {
+                                StorageSession.readFully(getSession().getDataChannel(), ByteBuffer.wrap(block),
+                                        blockId * block.length);
+                        }
                 } catch (IOException e) {
                         e.printStackTrace();
                 }
-                byte[] numberOfRecordsAsBytes = new byte[Integer.BYTES];
-                int srcPos = 0;
-                System.arraycopy(block, srcPos, numberOfRecordsAsBytes, 0, Integer.BYTES);
-                srcPos += Integer.BYTES;
-                int numberOfRecords = ByteConvertible.bytesToInt(numberOfRecordsAsBytes);
-                ArrayList<Record> records = new ArrayList<>();
-                for (int i = 0; i < numberOfRecords; ++i)
-                {
-                        byte[] recordAsBytes = new byte[Record.BYTES];
-                        System.arraycopy(block, srcPos, recordAsBytes, 0, Record.BYTES);
-                        srcPos += Record.BYTES;
-                        records.add(Record.fromBytes(recordAsBytes));
-                }
-                return records;
+                return new DataBlock(block);
         }
 
         /**
-         * Reads a single Record in the data file
-         * @param blockId of the block containing the Record
-         * @param recordId of the Record
-         * @return the Record with the given record id
+         *
+         * @param blockId of the block to be read
+         * @return list of records in the block with the given id
          */
-        public static Record getRecord(long blockId, long recordId)
+        public static ArrayList<Record> getDataBlock(long blockId)
         {
-                for (Record record : getDataBlock(blockId))
-                {
-                        if (record.getId() == recordId)
+                return readDataBlock(blockId).getRecords();
+        }
+
+        /**
+         * Reads a single Record in the data file, decoding only its slot
+         * @param recordLocator of the Record, see DataBlock.toLocator
+         * @return the Record with the given locator
+         */
+        public static Record getRecord(long recordLocator)
+        {
+                return readDataBlock(DataBlock.blockIdOf(recordLocator)).getRecord(DataBlock.slotOf(recordLocator));
+        }
+
+        /**
+         * Streams the XML file and extracts Records containing an id, a name and lat, long attributes.
+         * Every full block of Records is written in the data file right away, so memory use doesn't depend on
+         * the size of the XML file.
+         */
+        public static void loadDatafile()
+        {
+                DataBlock[] block = {new DataBlock(DataMetaData.getBlockSize())}; // The block being filled
+                try {
+                        parseOsmFile(OSM_FILE_PATH, record -> {
+                                if (!block[0].hasSpaceFor(record.getByteSize()) && block[0].getNumberOfSlots() > 0)
+                                {
+                                        appendDataBlock(block[0]);
+                                        block[0] = new DataBlock(DataMetaData.getBlockSize());
+                                }
+                                block[0].addRecord(record);
+                        });
+                        // Write the last, partially filled block
+                        if (block[0].getNumberOfSlots() > 0)
                         {
-                                return record;
+                                appendDataBlock(block[0]);
                         }
+                } catch (XMLStreamException | IOException e) {
+                        e.printStackTrace();
                 }
-                return null;
+                checkpoint();
         }
 
         /**
-         * Parses the XML file and extracts Records containing an id, a name and lat, long attributes.
-         * The Records are written in the data file.
+         * Streams an XML file and passes every <node> element that has a name to the consumer as a Record,
+         * as soon as the element closes
+         * @param osmFilePath the path of the XML file
+         * @param consumer of the extracted Records
+         * @throws XMLStreamException if the file is not well formed XML
+         * @throws IOException if the file can't be read
          */
-        public static void loadDatafile()
+        public static void parseOsmFile(String osmFilePath, Consumer<Record> consumer) throws XMLStreamException, IOException
         {
-                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                ArrayList<Record> records = new ArrayList<>();
-                Record record;
-                try {
-                        DocumentBuilder builder = factory.newDocumentBuilder();
-                        Document doc = builder.parse(OSM_FILE_PATH);
-                        // Get all <node> elements from osm file
-                        NodeList nodeList = doc.getElementsByTagName("node");
-                        for (int i = 0; i < nodeList.getLength(); ++i)
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                try (InputStream osmInputStream = new BufferedInputStream(new FileInputStream(osmFilePath))) {
+                        XMLStreamReader reader = factory.createXMLStreamReader(osmInputStream);
+                        long id = 0;
+                        double lat = 0, lon = 0;
+                        String name = null; // The name of the <node> element being parsed, if it has one
+                        while (reader.hasNext())
                         {
-                                org.w3c.dom.Node node = nodeList.item(i);
-                                if (node.getNodeType() == org.w3c.dom.Node.ELEMENT_NODE)
+                                int event = reader.next();
+                                if (event == XMLStreamConstants.START_ELEMENT)
                                 {
-                                        Element nodeElement = (Element) node;
-                                        NodeList tagList = nodeElement.getChildNodes();
-                                        for (int j = 0; j < tagList.getLength(); ++j)
+                                        if (reader.getLocalName().equals("node"))
+                                        {
+                                                id = Long.parseLong(reader.getAttributeValue(null, "id"));
+                                                lat = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+                                                lon = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+                                                name = null;
+                                        }
+                                        else if (reader.getLocalName().equals("tag") &&
+                                                "name".equals(reader.getAttributeValue(null, "k")))
                                         {
-                                                org.w3c.dom.Node tag = tagList.item(j);
-                                                if (tag.getNodeType() == org.w3c.dom.Node.ELEMENT_NODE)
-                                                {
-                                                        Element tagElement = (Element) tag;
-                                                        if (tagElement.getAttribute("k").equals("name"))
-                                                        {
-                                                                long id = Long.parseLong(
-                                                                        nodeElement.getAttribute("id"));
-                                                                double lat = Double.parseDouble(
-                                                                        nodeElement.getAttribute("lat"));
-                                                                double lon = Double.parseDouble(
-                                                                        nodeElement.getAttribute("lon"));
-                                                                String name = tagElement.getAttribute("v");
-                                                                record = new Record(id, name, new double[]{lat, lon});
-                                                                records.add(record);
-                                                                DataMetaData.addOneRecord();
-                                                                DataMetaData.write();
-                                                        }
-                                                        if (records.size() == DataMetaData.MAX_RECORDS_IN_BLOCK)
-                                                        {
-                                                                writeDataBlock(records);
-                                                                records.clear();
-                                                        }
-                                                }
+                                                name = reader.getAttributeValue(null, "v");
                                         }
                                 }
+                                else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("node")
+                                        && name != null)
+                                {
+                                        consumer.accept(new Record(id, name, new double[]{lat, lon}));
+                                        name = null;
+                                }
                         }
-                } catch (ParserConfigurationException | SAXException | IOException e) {
-                        e.printStackTrace();
+                        reader.close();
                 }
         }
 }
-
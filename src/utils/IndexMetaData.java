@@ -1,87 +1,226 @@
 package utils;
 
+import tree.Entry;
+import tree.LeafEntry;
 import tree.Node;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * Contains the Meta Data of the index file
  */
 public class IndexMetaData {
         private static int numOfNodes = 0;
+        // Freed pages form a chain through the index file, see FileHandler.freeNode
+        private static int numOfFreePages = 0;
+        private static long freePageHead = 0; // The first page of the chain, or 0 if there are no free pages
         protected static long rootNodeId = 1;
         protected static long nextAvailableNodeId = 2;
+        protected static int rootLevel = 0; // The level of the root node, which is the height of the tree
 
-        public static final int MAX_ENTRIES_IN_NODE = 3;
-        // (numOfNodes, rootNodeId, nextAvailableNodeId)
-        public static final int BYTES = Integer.BYTES + Long.BYTES + Long.BYTES;
+        public static final int MIN_PAGE_SIZE = 512;
+        public static final int MAX_PAGE_SIZE = 64 * 1024;
+        public static final int DEFAULT_PAGE_SIZE = 4 * 1024;
+        private static int pageSize = DEFAULT_PAGE_SIZE; // The size of a node in the index file
+        // Leaf and internal nodes have different entry sizes, so they have different fanouts
+        private static int maxLeafEntries = maxEntriesFor(DEFAULT_PAGE_SIZE, LeafEntry.BYTES);
+        private static int minLeafEntries = minEntriesFor(maxLeafEntries);
+        private static int maxInternalEntries = maxEntriesFor(DEFAULT_PAGE_SIZE, Entry.BYTES);
+        private static int minInternalEntries = minEntriesFor(maxInternalEntries);
+
+        private static final int MAGIC = 0x52535449; // "RSTI"
+        public static final int VERSION = 5;
+        // (magic, version, pageSize, maxLeafEntries, minLeafEntries, maxInternalEntries, minInternalEntries, numOfNodes,
+        // numOfFreePages, freePageHead, rootNodeId, nextAvailableNodeId, rootLevel, checksum)
+        public static final int BYTES = 2 * Integer.BYTES + 5 * Integer.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES +
+                Long.BYTES + Long.BYTES + Integer.BYTES + Long.BYTES;
 
         public static void addOneNode() { numOfNodes++; }
+        public static void removeOneNode() { numOfNodes--; }
+        public static void setNumOfNodes(int nodes) { numOfNodes = nodes; }
         public static int getNumOfNodes() { return numOfNodes; }
-        public static long getNextAvailableNodeId()
+        public static int getNumOfFreePages() { return numOfFreePages; }
+        public static long getFreePageHead() { return freePageHead; }
+
+        /**
+         * @return the number of pages of the index file, including the header page
+         */
+        public static long getNumOfPages() { return numOfNodes + numOfFreePages + 1L; }
+
+        /**
+         * Makes a page the first page of the free chain
+         * @param page the freed page, which links to the previous first page
+         */
+        public static void pushFreePage(long page)
+        {
+                freePageHead = page;
+                numOfFreePages++;
+        }
+
+        /**
+         * Removes the first page of the free chain
+         * @param nextFreePage the page the removed page linked to
+         */
+        public static void popFreePage(long nextFreePage)
+        {
+                freePageHead = nextFreePage;
+                numOfFreePages--;
+        }
+
+        /**
+         * Forgets every free page, after the index file has been compacted
+         */
+        public static void clearFreePages()
+        {
+                freePageHead = 0;
+                numOfFreePages = 0;
+        }
+        public static int getRootLevel() { return rootLevel; }
+        public static int getPageSize() { return pageSize; }
+        public static int getMaxLeafEntries() { return maxLeafEntries; }
+        public static int getMinLeafEntries() { return minLeafEntries; }
+        public static int getMaxInternalEntries() { return maxInternalEntries; }
+        public static int getMinInternalEntries() { return minInternalEntries; }
+
+        /**
+         * A page must hold one entry more than the maximum, since an overflowed node is kept, and may be written,
+         * until it is split
+         * @param pageSize the size of a node in bytes
+         * @param entryBytes the size of a serialised entry of the node
+         * @return the maximum number of entries of a node
+         */
+        private static int maxEntriesFor(int pageSize, int entryBytes)
+        {
+                return (pageSize - Node.HEADER_BYTES) / entryBytes - 1;
+        }
+
+        private static int minEntriesFor(int maxEntries)
+        {
+                return Math.max(1, (int) Math.floor(maxEntries * Node.MIN_LOAD_FACTOR));
+        }
+
+        /**
+         * Restores the Meta Data of an empty index file, using the default page size
+         */
+        public static void reset()
+        {
+                reset(DEFAULT_PAGE_SIZE);
+        }
+
+        /**
+         * Restores the Meta Data of an empty index file
+         * @param newPageSize the size of a node in bytes, a power of two between MIN_PAGE_SIZE and MAX_PAGE_SIZE
+         */
+        public static void reset(int newPageSize)
+        {
+                if (newPageSize < MIN_PAGE_SIZE || newPageSize > MAX_PAGE_SIZE || Integer.bitCount(newPageSize) != 1)
+                {
+                        throw new IllegalArgumentException("The page size must be a power of two between " + MIN_PAGE_SIZE +
+                                " and " + MAX_PAGE_SIZE + " bytes");
+                }
+                numOfNodes = 0;
+                numOfFreePages = 0;
+                freePageHead = 0;
+                rootNodeId = 1;
+                nextAvailableNodeId = 2;
+                rootLevel = 0;
+                pageSize = newPageSize;
+                maxLeafEntries = maxEntriesFor(newPageSize, LeafEntry.BYTES);
+                minLeafEntries = minEntriesFor(maxLeafEntries);
+                maxInternalEntries = maxEntriesFor(newPageSize, Entry.BYTES);
+                minInternalEntries = minEntriesFor(maxInternalEntries);
+        }
+        public static synchronized long getNextAvailableNodeId()
         {
                 return nextAvailableNodeId++;
         }
 
+        /**
+         * Reserves a range of consecutive Node ids, so that a thread can assign them to new Nodes without sharing
+         * the next available Node id with other threads
+         * @param numberOfIds the number of ids in the range
+         * @return the first id of the range
+         */
+        public static synchronized long reserveNodeIds(long numberOfIds)
+        {
+                if (numberOfIds < 0)
+                {
+                        throw new IllegalArgumentException("The number of node ids can't be negative");
+                }
+                long firstNodeId = nextAvailableNodeId;
+                nextAvailableNodeId += numberOfIds;
+                return firstNodeId;
+        }
+
+        /**
+         * Writes the in-memory Meta Data to the header of the index file
+         */
         public static void write()
         {
-                byte[] node = new byte[Node.BYTES];
+                byte[] node = new byte[pageSize];
                 System.arraycopy(toBytes(), 0, node, 0, BYTES);
                 try {
-                        RandomAccessFile raf = new RandomAccessFile(FileHandler.INDEX_FILE_NAME, "rw");
-                        raf.seek(0);
-                        raf.write(node);
+                        StorageSession.writeFully(FileHandler.getSession().getIndexChannel(), ByteBuffer.wrap(node), 0);
                 } catch (IOException e) {
                         e.printStackTrace();
                 }
         }
 
-        public static void read()
+        /**
+         * Loads the Meta Data from the header of the index file
+         * @throws IOException if the header can't be read, has an unknown format or is corrupt
+         */
+        public static void read() throws IOException
         {
                 byte[] indexMetaDataAsBytes = new byte[BYTES];
-                try {
-                        RandomAccessFile raf = new RandomAccessFile(FileHandler.INDEX_FILE_NAME, "r");
-                        raf.seek(0);
-                        raf.readFully(indexMetaDataAsBytes);
-                } catch (IOException e) {
-                        e.printStackTrace();
-                }
+                StorageSession.readFully(FileHandler.getSession().getIndexChannel(), ByteBuffer.wrap(indexMetaDataAsBytes), 0);
                 fromBytes(indexMetaDataAsBytes);
         }
 
         public static byte[] toBytes()
         {
-                byte[] indexMetaDataAsBytes = new byte[BYTES],
-                        numOfNodesAsBytes = ByteConvertible.intToBytes(numOfNodes),
-                        rootNodeIdAsBytes = ByteConvertible.longToBytes(rootNodeId),
-                        nextAvailableNodeIdAsBytes = ByteConvertible.longToBytes(nextAvailableNodeId);
-                int destPos = 0;
-
-                System.arraycopy(numOfNodesAsBytes, 0, indexMetaDataAsBytes, destPos, Integer.BYTES);
-                destPos += Integer.BYTES;
-                System.arraycopy(rootNodeIdAsBytes, 0, indexMetaDataAsBytes, destPos, Long.BYTES);
-                destPos += Long.BYTES;
-                System.arraycopy(nextAvailableNodeIdAsBytes, 0, indexMetaDataAsBytes, destPos, Long.BYTES);
-
-                return indexMetaDataAsBytes;
+                ByteBuffer indexMetaDataAsBytes = ByteBuffer.allocate(BYTES);
+                indexMetaDataAsBytes.putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putInt(pageSize)
+                        .putInt(maxLeafEntries)
+                        .putInt(minLeafEntries)
+                        .putInt(maxInternalEntries)
+                        .putInt(minInternalEntries)
+                        .putInt(numOfNodes)
+                        .putInt(numOfFreePages)
+                        .putLong(freePageHead)
+                        .putLong(rootNodeId)
+                        .putLong(nextAvailableNodeId)
+                        .putInt(rootLevel);
+                indexMetaDataAsBytes.putLong(ByteCodec.checksum(indexMetaDataAsBytes.array(), BYTES - Long.BYTES));
+
+                return indexMetaDataAsBytes.array();
         }
 
-        public static void fromBytes(byte[] bytes)
+        public static void fromBytes(byte[] bytes) throws IOException
         {
-                byte[] numOfNodesAsBytes = new byte[Integer.BYTES],
-                        rootNodeIdAsBytes = new byte[Long.BYTES],
-                        nextAvailableNodeIdAsBytes = new byte[Long.BYTES];
-                int srcPos = 0;
-
-                System.arraycopy(bytes, srcPos, numOfNodesAsBytes, 0, numOfNodesAsBytes.length);
-                srcPos += numOfNodesAsBytes.length;
-                System.arraycopy(bytes, srcPos, rootNodeIdAsBytes, 0, rootNodeIdAsBytes.length);
-                srcPos += rootNodeIdAsBytes.length;
-                System.arraycopy(bytes, srcPos, nextAvailableNodeIdAsBytes, 0, nextAvailableNodeIdAsBytes.length);
-
-                numOfNodes = ByteConvertible.bytesToInt(numOfNodesAsBytes);
-                rootNodeId = ByteConvertible.bytesToLong(rootNodeIdAsBytes);
-                nextAvailableNodeId = ByteConvertible.bytesToLong(nextAvailableNodeIdAsBytes);
+                ByteBuffer indexMetaDataAsBytes = ByteBuffer.wrap(bytes);
+                if (indexMetaDataAsBytes.getInt() != MAGIC || indexMetaDataAsBytes.getInt() != VERSION)
+                {
+                        throw new IOException("Unknown index file format");
+                }
+                if (indexMetaDataAsBytes.getLong(BYTES - Long.BYTES) != ByteCodec.checksum(bytes, BYTES - Long.BYTES))
+                {
+                        throw new IOException("The index file header is corrupt");
+                }
+
+                pageSize = indexMetaDataAsBytes.getInt();
+                maxLeafEntries = indexMetaDataAsBytes.getInt();
+                minLeafEntries = indexMetaDataAsBytes.getInt();
+                maxInternalEntries = indexMetaDataAsBytes.getInt();
+                minInternalEntries = indexMetaDataAsBytes.getInt();
+                numOfNodes = indexMetaDataAsBytes.getInt();
+                numOfFreePages = indexMetaDataAsBytes.getInt();
+                freePageHead = indexMetaDataAsBytes.getLong();
+                rootNodeId = indexMetaDataAsBytes.getLong();
+                nextAvailableNodeId = indexMetaDataAsBytes.getLong();
+                rootLevel = indexMetaDataAsBytes.getInt();
         }
 }
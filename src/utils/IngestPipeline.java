@@ -0,0 +1,273 @@
+package utils;
+
+import tree.Record;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Loads an XML file into the data file and the index using one thread per stage:
+ * parsing -> encoding Records into blocks -> writing blocks to the data file -> indexing the Records.
+ * The stages are connected with bounded queues, so a slow stage applies backpressure to the ones before it.
+ * The indexing stage commits after the Records of every block, so a crash loses at most the blocks after the last
+ * forced commit. An indexer that holds back Records is made to index them at least every MAX_UNCOMMITTED_BLOCKS
+ * blocks, so that commits and checkpoints keep up with the data file.
+ */
+public class IngestPipeline {
+        public static final int QUEUE_CAPACITY = 64; // Blocks waiting between two stages
+        public static final int RECORD_QUEUE_CAPACITY = 4096; // Records waiting between the parsing and encoding stages
+        public static final int MAX_UNCOMMITTED_BLOCKS = 16; // Indexed blocks after which held back Records are indexed
+
+        /**
+         * Receives every Record written in the data file, along with its locator, see DataBlock.toLocator
+         */
+        public interface RecordIndexer {
+                void index(Record record, long recordLocator);
+
+                /**
+                 * Called after the Records of every block were passed to index
+                 * @return whether every Record passed so far is in the index, so that the blocks can be committed
+                 */
+                default boolean isIndexed()
+                {
+                        return true;
+                }
+
+                /**
+                 * Indexes every Record held back, so that the blocks can be committed
+                 */
+                default void completeIndexing()
+                {
+                }
+        }
+
+        /**
+         * A block of Records passed from the encoding to the writing stage and from the writing to the indexing stage
+         */
+        private static class Block {
+                private static final Block END = new Block(new ArrayList<>(), null); // Marks the end of the stream
+
+                private final ArrayList<Record> records; // The slot of every Record is its position in the list
+                private final DataBlock encodedBlock;
+                private long blockId;
+
+                public Block(ArrayList<Record> records, DataBlock encodedBlock) {
+                        this.records = records;
+                        this.encodedBlock = encodedBlock;
+                }
+        }
+
+        private static final Record END_OF_RECORDS = new Record(-1, "", new double[FileHandler.DIMENSIONS]);
+
+        private final String osmFilePath;
+        private final RecordIndexer indexer;
+        private final BlockingQueue<Record> parsedRecords = new ArrayBlockingQueue<>(RECORD_QUEUE_CAPACITY);
+        private final BlockingQueue<Block> encodedBlocks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final BlockingQueue<Block> writtenBlocks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ArrayList<Stage> stages = new ArrayList<>();
+        private volatile Throwable failure;
+
+        /**
+         * @param osmFilePath the path of the XML file to be loaded
+         * @param indexer the indexing stage, which receives the Records in the order they were written
+         */
+        public IngestPipeline(String osmFilePath, RecordIndexer indexer)
+        {
+                this.osmFilePath = osmFilePath;
+                this.indexer = indexer;
+
+                stages.add(new Stage("parse") {
+                        @Override
+                        void process() throws Exception
+                        {
+                                FileHandler.parseOsmFile(osmFilePath, record -> {
+                                        try {
+                                                put(parsedRecords, record);
+                                        } catch (InterruptedException e) {
+                                                throw new IllegalStateException(e);
+                                        }
+                                        processedItems++;
+                                });
+                                put(parsedRecords, END_OF_RECORDS);
+                        }
+                });
+                stages.add(new Stage("encode") {
+                        @Override
+                        void process() throws Exception
+                        {
+                                Block block = new Block(new ArrayList<>(), new DataBlock(DataMetaData.getBlockSize()));
+                                for (Record record = take(parsedRecords); record != END_OF_RECORDS; record = take(parsedRecords))
+                                {
+                                        if (!block.encodedBlock.hasSpaceFor(record.getByteSize()) && !block.records.isEmpty())
+                                        {
+                                                put(encodedBlocks, block);
+                                                block = new Block(new ArrayList<>(), new DataBlock(DataMetaData.getBlockSize()));
+                                        }
+                                        block.encodedBlock.addRecord(record);
+                                        block.records.add(record);
+                                        processedItems++;
+                                }
+                                if (!block.records.isEmpty())
+                                {
+                                        put(encodedBlocks, block);
+                                }
+                                put(encodedBlocks, Block.END);
+                        }
+                });
+                stages.add(new Stage("write") {
+                        @Override
+                        void process() throws Exception
+                        {
+                                for (Block block = take(encodedBlocks); block != Block.END; block = take(encodedBlocks))
+                                {
+                                        block.blockId = FileHandler.appendDataBlock(block.encodedBlock);
+                                        processedItems += block.records.size();
+                                        put(writtenBlocks, block);
+                                }
+                                put(writtenBlocks, Block.END);
+                        }
+                });
+                stages.add(new Stage("index") {
+                        @Override
+                        void process() throws Exception
+                        {
+                                int uncommittedBlocks = 0;
+                                for (Block block = take(writtenBlocks); block != Block.END; block = take(writtenBlocks))
+                                {
+                                        for (int slot = 0; slot < block.records.size(); ++slot)
+                                        {
+                                                indexer.index(block.records.get(slot), DataBlock.toLocator(block.blockId, slot));
+                                                processedItems++;
+                                        }
+                                        if (++uncommittedBlocks >= MAX_UNCOMMITTED_BLOCKS)
+                                        {
+                                                indexer.completeIndexing();
+                                        }
+                                        // Blocks are written and indexed in order, so every block up to this one is indexed,
+                                        // unless the indexer holds back some Records
+                                        if (indexer.isIndexed())
+                                        {
+                                                BufferPool.flush();
+                                                FileHandler.commit(block.blockId + 1, processedItems);
+                                                uncommittedBlocks = 0;
+                                        }
+                                }
+                        }
+                });
+        }
+
+        /**
+         * Runs all the stages and waits until every Record has been indexed. Then every held back Record is indexed,
+         * the changed Nodes are written, the whole data file is committed and a checkpoint is written.
+         * @throws IllegalStateException if any of the stages failed
+         */
+        public void run()
+        {
+                for (Stage stage : stages)
+                {
+                        stage.start();
+                }
+                for (Stage stage : stages)
+                {
+                        try {
+                                stage.join();
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                fail(e);
+                        }
+                }
+                if (failure != null)
+                {
+                        throw new IllegalStateException("Loading " + osmFilePath + " failed", failure);
+                }
+                indexer.completeIndexing();
+                BufferPool.flush();
+                FileHandler.commit();
+                FileHandler.checkpoint();
+        }
+
+        /**
+         * Stops all the stages after one of them failed
+         * @param cause of the failure
+         */
+        private synchronized void fail(Throwable cause)
+        {
+                if (failure == null)
+                {
+                        failure = cause;
+                        for (Stage stage : stages)
+                        {
+                                stage.interrupt();
+                        }
+                }
+        }
+
+        /**
+         * @return the number of Records of every stage and its throughput, based on the time the stage spent working
+         * and not waiting for the other stages
+         */
+        public String getStatistics()
+        {
+                StringBuilder statistics = new StringBuilder("IngestPipeline(");
+                for (int i = 0; i < stages.size(); ++i)
+                {
+                        statistics.append(i == 0 ? "" : ", ").append(stages.get(i));
+                }
+                return statistics.append(")").toString();
+        }
+
+        /**
+         * A thread running one stage of the pipeline, which counts the Records it processed and the time it spent
+         * waiting on the queues
+         */
+        private abstract class Stage extends Thread {
+                protected long processedItems = 0;
+                private long startTime;
+                private long endTime;
+                private long waitingTime = 0;
+
+                public Stage(String name) {
+                        super("ingest-" + name);
+                }
+
+                abstract void process() throws Exception;
+
+                protected <T> T take(BlockingQueue<T> queue) throws InterruptedException
+                {
+                        long waitStart = System.nanoTime();
+                        T item = queue.take();
+                        waitingTime += System.nanoTime() - waitStart;
+                        return item;
+                }
+
+                protected <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException
+                {
+                        long waitStart = System.nanoTime();
+                        queue.put(item);
+                        waitingTime += System.nanoTime() - waitStart;
+                }
+
+                @Override
+                public void run()
+                {
+                        startTime = System.nanoTime();
+                        try {
+                                process();
+                        } catch (Throwable e) {
+                                fail(e);
+                        }
+                        endTime = System.nanoTime();
+                }
+
+                @Override
+                public String toString()
+                {
+                        double busySeconds = (endTime - startTime - waitingTime) / 1e9,
+                                waitingSeconds = waitingTime / 1e9;
+                        return getName().substring("ingest-".length()) + "(records(" + processedItems + "), " +
+                                "recordsPerSecond(" + (busySeconds <= 0 ? 0 : Math.round(processedItems / busySeconds)) + "), " +
+                                "waitingSeconds(" + waitingSeconds + "))";
+                }
+        }
+}
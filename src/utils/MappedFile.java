@@ -0,0 +1,88 @@
+package utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a whole file. Since a single MappedByteBuffer can't exceed 2GB,
+ * the file is mapped in consecutive segments of SEGMENT_SIZE bytes.
+ */
+public class MappedFile {
+        public static final long SEGMENT_SIZE = 1L << 30;
+
+        private final MappedByteBuffer[] segments;
+        private final long size;
+
+        /**
+         * Maps the current contents of the file read by the channel
+         * @param channel of the file to be mapped
+         * @throws IOException if the file can't be mapped
+         */
+        public MappedFile(FileChannel channel) throws IOException
+        {
+                size = channel.size();
+                segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+                for (int i = 0; i < segments.length; ++i)
+                {
+                        long position = i * SEGMENT_SIZE;
+                        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+                }
+        }
+
+        public long size() { return size; }
+
+        /**
+         * Copies bytes of the mapped file to the destination array, crossing segment boundaries if needed
+         * @param position of the file where copying starts
+         * @param destination the array to be filled
+         * @throws EOFException if the array can't be filled before the end of the file
+         */
+        public void get(long position, byte[] destination) throws EOFException
+        {
+                if (position < 0 || position + destination.length > size)
+                {
+                        throw new EOFException("Can't read " + destination.length + " bytes at position " + position +
+                                " of a " + size + " bytes file");
+                }
+                int destPos = 0;
+                while (destPos < destination.length)
+                {
+                        ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+                        segment.position((int) (position % SEGMENT_SIZE));
+                        int length = Math.min(destination.length - destPos, segment.remaining());
+                        segment.get(destination, destPos, length);
+                        destPos += length;
+                        position += length;
+                }
+        }
+
+        /**
+         * Returns the bytes of the mapped file at the given position without copying them
+         * @param position of the file where the bytes start
+         * @param length the number of bytes
+         * @return a read-only buffer over the mapping, whose offset 0 is the given position of the file, or null if
+         * the bytes cross a segment boundary and must be copied with get
+         * @throws EOFException if the bytes extend past the end of the file
+         */
+        public ByteBuffer slice(long position, int length) throws EOFException
+        {
+                if (position < 0 || position + length > size)
+                {
+                        throw new EOFException("Can't read " + length + " bytes at position " + position +
+                                " of a " + size + " bytes file");
+                }
+                MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+                int offset = (int) (position % SEGMENT_SIZE);
+                if (offset + length > segment.capacity())
+                {
+                        return null;
+                }
+                ByteBuffer slice = segment.asReadOnlyBuffer();
+                slice.position(offset);
+                slice.limit(offset + length);
+                return slice.slice();
+        }
+}
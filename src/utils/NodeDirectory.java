@@ -0,0 +1,107 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Maps the id of every Node to the page of the index file it is stored in.
+ * The directory is kept in memory and written to the directory file at checkpoints, where the page of the
+ * Node with id nodeId is stored at position nodeId * Long.BYTES. Between checkpoints the changes are recovered from
+ * the log, whose page records hold the page of every written Node and whose directory records drop the Nodes
+ * removed by a compaction, see FileHandler.recover.
+ */
+public class NodeDirectory {
+        private static long[] pages = new long[64]; // pages[nodeId] is the page of the Node or 0 if it doesn't exist
+        // The range of Node ids whose pages changed since the directory file was last written
+        private static long firstChangedId = Long.MAX_VALUE, lastChangedId = 0;
+
+        /**
+         * @param nodeId of the Node
+         * @return the page of the index file containing the Node or 0 if the Node doesn't exist
+         */
+        public static long getPage(long nodeId)
+        {
+                if (nodeId <= 0 || nodeId >= pages.length)
+                {
+                        return 0;
+                }
+                return pages[(int) nodeId];
+        }
+
+        /**
+         * Stores the page of a Node in the directory. The directory file is only written by the next checkpoint,
+         * so the change must also be logged, see WriteAheadLog.
+         * @param nodeId of the Node
+         * @param page of the index file containing the Node, or 0 if the Node no longer exists
+         */
+        public static void setPage(long nodeId, long page)
+        {
+                if (nodeId >= pages.length)
+                {
+                        pages = Arrays.copyOf(pages, (int) Math.max(nodeId + 1, 2L * pages.length));
+                }
+                pages[(int) nodeId] = page;
+                firstChangedId = Math.min(firstChangedId, nodeId);
+                lastChangedId = Math.max(lastChangedId, nodeId);
+        }
+
+        /**
+         * Writes the changed range of the directory to the directory file, in a single write. The file is not
+         * forced to the storage device.
+         * @throws IOException if the file can't be written
+         */
+        public static void write() throws IOException
+        {
+                if (firstChangedId > lastChangedId)
+                {
+                        return;
+                }
+                int length = (int) (lastChangedId - firstChangedId + 1);
+                ByteBuffer changedPages = ByteBuffer.allocate(length * Long.BYTES);
+                changedPages.asLongBuffer().put(pages, (int) firstChangedId, length);
+                StorageSession.writeFully(FileHandler.getSession().getDirectoryChannel(), changedPages,
+                        firstChangedId * Long.BYTES);
+                firstChangedId = Long.MAX_VALUE;
+                lastChangedId = 0;
+        }
+
+        /**
+         * @return the ids of every Node stored in the index file, in ascending order
+         */
+        public static long[] getNodeIds()
+        {
+                return LongStream.range(1, pages.length).filter(nodeId -> pages[(int) nodeId] != 0).toArray();
+        }
+
+        /**
+         * Empties the directory and deletes the directory file. The storage session must be closed.
+         */
+        public static void clear()
+        {
+                pages = new long[64];
+                firstChangedId = Long.MAX_VALUE;
+                lastChangedId = 0;
+                FileHandler.getPath(FileHandler.DIRECTORY_FILE_NAME).toFile().delete();
+        }
+
+        /**
+         * Loads the whole directory file in memory
+         */
+        public static void read()
+        {
+                try {
+                        FileChannel directoryChannel = FileHandler.getSession().getDirectoryChannel();
+                        byte[] directoryAsBytes = new byte[(int) (directoryChannel.size() / Long.BYTES) * Long.BYTES];
+                        StorageSession.readFully(directoryChannel, ByteBuffer.wrap(directoryAsBytes), 0);
+                        pages = new long[Math.max(directoryAsBytes.length / Long.BYTES, 64)];
+                        ByteBuffer.wrap(directoryAsBytes).asLongBuffer().get(pages, 0, directoryAsBytes.length / Long.BYTES);
+                        firstChangedId = Long.MAX_VALUE;
+                        lastChangedId = 0;
+                } catch (IOException e) {
+                        e.printStackTrace();
+                }
+        }
+}
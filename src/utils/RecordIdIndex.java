@@ -0,0 +1,280 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent hash index from the id of every Record to its locator in the data file, see DataBlock.toLocator.
+ * The file starts with a header page, followed by a power of two number of bucket pages. A Record is stored in
+ * the bucket selected by the hash of its id or, if that bucket is full, in the first following bucket with a free
+ * entry, so a lookup usually reads a single page. When the index gets half full, it is rebuilt with twice as many
+ * buckets in a new file, which then replaces the old one.
+ */
+public class RecordIdIndex implements Closeable {
+        public static final int BUCKET_BYTES = 4 * 1024;
+        // (id, locator), where a zero locator marks a free entry since block 0 holds the data file header
+        public static final int ENTRY_BYTES = Long.BYTES + Long.BYTES;
+        public static final int ENTRIES_PER_BUCKET = BUCKET_BYTES / ENTRY_BYTES;
+        public static final int INITIAL_BUCKETS = 16;
+        private static final double MAX_LOAD_FACTOR = 0.5;
+
+        private static final int MAGIC = 0x52534948; // "RSIH"
+        private static final int VERSION = 1;
+        // (magic, version, numberOfBuckets, numberOfEntries, checksum)
+        private static final int HEADER_BYTES = 2 * Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES;
+
+        private final Path file;
+        private final boolean readOnly;
+        private FileChannel channel;
+        private int numberOfBuckets;
+        private long numberOfEntries;
+        private final ByteBuffer bucket = ByteBuffer.allocate(BUCKET_BYTES); // Reused for reading buckets
+
+        /**
+         * Opens the index file, creating an empty index if the file is empty or doesn't exist
+         * @param file the path of the index file
+         * @param readOnly if true the existing file is opened only for reading
+         * @throws IOException if the file can't be opened or its header is corrupt
+         */
+        public RecordIdIndex(Path file, boolean readOnly) throws IOException
+        {
+                this.file = file;
+                this.readOnly = readOnly;
+                channel = open(file);
+                if (channel.size() == 0 && !readOnly)
+                {
+                        allocateBuckets(INITIAL_BUCKETS);
+                        numberOfEntries = 0;
+                        writeHeader();
+                }
+                else
+                {
+                        readHeader();
+                }
+        }
+
+        private FileChannel open(Path path) throws IOException
+        {
+                if (readOnly)
+                {
+                        return FileChannel.open(path, StandardOpenOption.READ);
+                }
+                return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        public int getNumberOfBuckets() { return numberOfBuckets; }
+        public long getNumberOfEntries() { return numberOfEntries; }
+
+        /**
+         * Mixes the bits of an id, since ids of neighbouring places are often consecutive
+         * @param id of a Record
+         * @return the hash of the id
+         */
+        private static long hash(long id)
+        {
+                id ^= id >>> 33;
+                id *= 0xff51afd7ed558ccdL;
+                id ^= id >>> 33;
+                id *= 0xc4ceb9fe1a85ec53L;
+                return id ^ (id >>> 33);
+        }
+
+        /**
+         * Extends an empty index file to the given number of free buckets, by writing its last bucket
+         * @param newNumberOfBuckets a power of two
+         * @throws IOException if the file can't be written
+         */
+        private void allocateBuckets(int newNumberOfBuckets) throws IOException
+        {
+                numberOfBuckets = newNumberOfBuckets;
+                StorageSession.writeFully(channel, ByteBuffer.wrap(new byte[BUCKET_BYTES]),
+                        bucketPosition(newNumberOfBuckets - 1));
+        }
+
+        private long bucketPosition(long bucketNumber)
+        {
+                return (bucketNumber + 1) * BUCKET_BYTES;
+        }
+
+        private void readBucket(long bucketNumber) throws IOException
+        {
+                bucket.clear();
+                StorageSession.readFully(channel, bucket, bucketPosition(bucketNumber));
+        }
+
+        /**
+         * @param id of a Record
+         * @return the locator of the Record or 0 if the id is not indexed
+         * @throws IOException if the index file can't be read
+         */
+        public synchronized long get(long id) throws IOException
+        {
+                long bucketNumber = hash(id) & (numberOfBuckets - 1);
+                for (int probes = 0; probes < numberOfBuckets; ++probes)
+                {
+                        readBucket(bucketNumber);
+                        for (int offset = 0; offset < BUCKET_BYTES; offset += ENTRY_BYTES)
+                        {
+                                long locator = bucket.getLong(offset + Long.BYTES);
+                                if (locator == 0)
+                                {
+                                        return 0;
+                                }
+                                if (bucket.getLong(offset) == id)
+                                {
+                                        return locator;
+                                }
+                        }
+                        bucketNumber = (bucketNumber + 1) & (numberOfBuckets - 1);
+                }
+                return 0;
+        }
+
+        /**
+         * Stores the locator of a Record, replacing any previous locator of the same id
+         * @param id of the Record
+         * @param locator of the Record, which must not be 0
+         * @throws IOException if the index file can't be written
+         */
+        public synchronized void put(long id, long locator) throws IOException
+        {
+                if (readOnly)
+                {
+                        throw new IllegalStateException("The record id index is opened read-only");
+                }
+                if (locator == 0)
+                {
+                        throw new IllegalArgumentException("Block 0 doesn't hold any records");
+                }
+                if (numberOfEntries + 1 > MAX_LOAD_FACTOR * numberOfBuckets * ENTRIES_PER_BUCKET)
+                {
+                        rebuild(2 * numberOfBuckets);
+                }
+                while (!tryPut(id, locator))
+                {
+                        // Every bucket is full, which can only happen if the header undercounts the entries
+                        rebuild(2 * numberOfBuckets);
+                }
+        }
+
+        /**
+         * @return whether the locator was stored, or false if every bucket is full
+         */
+        private boolean tryPut(long id, long locator) throws IOException
+        {
+                long bucketNumber = hash(id) & (numberOfBuckets - 1);
+                for (int probes = 0; probes < numberOfBuckets; ++probes)
+                {
+                        readBucket(bucketNumber);
+                        for (int offset = 0; offset < BUCKET_BYTES; offset += ENTRY_BYTES)
+                        {
+                                long storedLocator = bucket.getLong(offset + Long.BYTES);
+                                if (storedLocator == 0 || bucket.getLong(offset) == id)
+                                {
+                                        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES).putLong(id).putLong(locator);
+                                        entry.flip();
+                                        StorageSession.writeFully(channel, entry, bucketPosition(bucketNumber) + offset);
+                                        if (storedLocator == 0)
+                                        {
+                                                numberOfEntries++;
+                                        }
+                                        return true;
+                                }
+                        }
+                        bucketNumber = (bucketNumber + 1) & (numberOfBuckets - 1);
+                }
+                return false;
+        }
+
+        /**
+         * Copies every entry into a new file with the given number of buckets, which then replaces the index file
+         * @param newNumberOfBuckets a power of two
+         * @throws IOException if the new file can't be written or moved
+         */
+        private void rebuild(int newNumberOfBuckets) throws IOException
+        {
+                Path newFile = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.deleteIfExists(newFile);
+                RecordIdIndex newIndex = new RecordIdIndex(newFile, false);
+                newIndex.allocateBuckets(newNumberOfBuckets);
+                for (long bucketNumber = 0; bucketNumber < numberOfBuckets; ++bucketNumber)
+                {
+                        readBucket(bucketNumber);
+                        for (int offset = 0; offset < BUCKET_BYTES; offset += ENTRY_BYTES)
+                        {
+                                long locator = bucket.getLong(offset + Long.BYTES);
+                                if (locator != 0)
+                                {
+                                        newIndex.tryPut(bucket.getLong(offset), locator);
+                                }
+                        }
+                }
+                newIndex.writeHeader();
+                newIndex.channel.force(true);
+                newIndex.close();
+
+                channel.close();
+                Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = open(file);
+                numberOfBuckets = newIndex.numberOfBuckets;
+                numberOfEntries = newIndex.numberOfEntries;
+        }
+
+        /**
+         * Writes the number of buckets and entries to the header page
+         * @throws IOException if the header can't be written
+         */
+        public synchronized void writeHeader() throws IOException
+        {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putInt(numberOfBuckets)
+                        .putLong(numberOfEntries);
+                header.putLong(ByteCodec.checksum(header.array(), HEADER_BYTES - Long.BYTES));
+                header.flip();
+                StorageSession.writeFully(channel, header, 0);
+        }
+
+        private void readHeader() throws IOException
+        {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                StorageSession.readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION)
+                {
+                        throw new IOException("Unknown record id index format");
+                }
+                if (header.getLong(HEADER_BYTES - Long.BYTES) != ByteCodec.checksum(header.array(), HEADER_BYTES - Long.BYTES))
+                {
+                        throw new IOException("The record id index header is corrupt");
+                }
+                numberOfBuckets = header.getInt(2 * Integer.BYTES);
+                numberOfEntries = header.getLong(3 * Integer.BYTES);
+        }
+
+        /**
+         * Forces the entries and the header to the storage device
+         * @throws IOException if forcing fails
+         */
+        public synchronized void force() throws IOException
+        {
+                writeHeader();
+                channel.force(false);
+        }
+
+        @Override
+        public synchronized void close() throws IOException
+        {
+                if (!readOnly)
+                {
+                        force();
+                }
+                channel.close();
+        }
+}
@@ -0,0 +1,143 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the data, index, directory, log and record id index files open for the lifetime of the session.
+ * All reads and writes are positional, so the channels can be shared by concurrent queries.
+ */
+public class StorageSession implements Closeable {
+        private final FileChannel dataChannel;
+        private final FileChannel indexChannel;
+        private final FileChannel directoryChannel;
+        private final FileChannel logChannel;
+        private final WriteAheadLog log;
+        private final RecordIdIndex idIndex;
+        private final boolean readOnly;
+        private MappedFile mappedIndex; // Mapping of the index file in read-only sessions, null if not mapped
+        private MappedFile mappedData; // Mapping of the data file in read-only sessions, null if not mapped
+
+        /**
+         * Opens (and creates if needed) the files of the session for reading and writing
+         * @throws IOException if any of the files can't be opened
+         */
+        public StorageSession() throws IOException
+        {
+                this(false);
+        }
+
+        /**
+         * Opens the files of the session. The log must be recovered or empty before the index is modified.
+         * @param readOnly if true the existing files are opened only for reading, otherwise they are opened
+         *                 for reading and writing and created if they don't exist
+         * @throws IOException if any of the files can't be opened
+         */
+        public StorageSession(boolean readOnly) throws IOException
+        {
+                this.readOnly = readOnly;
+                dataChannel = open(FileHandler.getPath(FileHandler.DATA_FILE_NAME));
+                indexChannel = open(FileHandler.getPath(FileHandler.INDEX_FILE_NAME));
+                directoryChannel = open(FileHandler.getPath(FileHandler.DIRECTORY_FILE_NAME));
+                logChannel = open(FileHandler.getPath(FileHandler.LOG_FILE_NAME));
+                log = new WriteAheadLog(logChannel);
+                idIndex = new RecordIdIndex(FileHandler.getPath(FileHandler.ID_INDEX_FILE_NAME), readOnly);
+        }
+
+        private FileChannel open(Path file) throws IOException
+        {
+                if (readOnly)
+                {
+                        return FileChannel.open(file, StandardOpenOption.READ);
+                }
+                return FileChannel.open(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        public boolean isReadOnly() { return readOnly; }
+
+        /**
+         * Memory maps the index file and optionally the data file, so that reads don't need a system call.
+         * Only allowed in read-only sessions, since the mappings don't follow changes of the files.
+         * @param mapDataFile whether the data file is mapped too
+         * @throws IOException if the files can't be mapped
+         */
+        public void map(boolean mapDataFile) throws IOException
+        {
+                if (!readOnly)
+                {
+                        throw new IllegalStateException("Only read-only sessions can be memory mapped");
+                }
+                mappedIndex = new MappedFile(indexChannel);
+                mappedData = mapDataFile ? new MappedFile(dataChannel) : null;
+        }
+
+        public MappedFile getMappedIndex() { return mappedIndex; }
+        public MappedFile getMappedData() { return mappedData; }
+
+        public FileChannel getDataChannel() { return dataChannel; }
+        public FileChannel getIndexChannel() { return indexChannel; }
+        public FileChannel getDirectoryChannel() { return directoryChannel; }
+        public WriteAheadLog getLog() { return log; }
+        public RecordIdIndex getIdIndex() { return idIndex; }
+
+        /**
+         * Fills the buffer with the bytes of the channel starting at the given position
+         * @param channel to read from
+         * @param buffer to be filled
+         * @param position of the channel where reading starts
+         * @throws IOException if the end of the channel is reached before the buffer is filled
+         */
+        public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+        {
+                while (buffer.hasRemaining())
+                {
+                        int bytesRead = channel.read(buffer, position);
+                        if (bytesRead < 0)
+                        {
+                                throw new EOFException("Reached end of file at position " + position);
+                        }
+                        position += bytesRead;
+                }
+        }
+
+        /**
+         * Writes all the remaining bytes of the buffer to the channel starting at the given position
+         * @param channel to write to
+         * @param buffer to be written
+         * @param position of the channel where writing starts
+         * @throws IOException if writing fails
+         */
+        public static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+        {
+                while (buffer.hasRemaining())
+                {
+                        position += channel.write(buffer, position);
+                }
+        }
+
+        /**
+         * Forces any pending changes to the storage device and closes the files of the session
+         */
+        @Override
+        public void close() throws IOException
+        {
+                try (FileChannel data = dataChannel; FileChannel index = indexChannel; FileChannel directory = directoryChannel;
+                     FileChannel logFile = logChannel) {
+                        // The record id index forces its own file when it closes
+                        idIndex.close();
+                        if (!readOnly)
+                        {
+                                data.force(true);
+                                index.force(true);
+                                directory.force(true);
+                                logFile.force(true);
+                        }
+                }
+        }
+}
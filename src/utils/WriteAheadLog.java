@@ -0,0 +1,318 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Redo log of the index file. Node pages are never written in place between checkpoints: every written version of
+ * a page is appended to the log and reads use the latest logged image. A commit record, holding the Meta Data of the
+ * index and data files, marks the end of a group of changes that leaves the tree consistent.
+ * The log also holds the changes of the NodeDirectory: a page record gives the page of its Node, a directory record
+ * moves or drops a Node without a new image, and a free record frees the page of a Node at the next checkpoint.
+ * Checkpoints copy the latest image of every logged page to the index file and empty the log. After a crash, the
+ * records up to the last commit are recovered and any later records are discarded.
+ */
+public class WriteAheadLog {
+        private static final byte PAGE_RECORD = 1;
+        private static final byte COMMIT_RECORD = 2;
+        private static final byte FREE_RECORD = 3;
+        private static final byte DIRECTORY_RECORD = 4;
+        // (type, nodeId, page, image[pageSize], checksum)
+        private static final int PAGE_RECORD_HEADER_BYTES = 1 + Long.BYTES + Long.BYTES;
+        // (type, index Meta Data, data Meta Data, checksum)
+        private static final int COMMIT_RECORD_BYTES = 1 + IndexMetaData.BYTES + DataMetaData.BYTES + Long.BYTES;
+        // (type, nodeId, page, checksum), for both directory and free records
+        private static final int DIRECTORY_RECORD_BYTES = 1 + Long.BYTES + Long.BYTES + Long.BYTES;
+        private static final long NO_IMAGE = -1; // The position of a Node moved by a directory record
+
+        /**
+         * The latest logged page and image of a Node
+         */
+        private static class LoggedPage {
+                private final long page; // The page of the index file the image belongs to, 0 if the Node was dropped
+                private final long position; // The position of the image in the log, or NO_IMAGE
+
+                public LoggedPage(long page, long position) {
+                        this.page = page;
+                        this.position = position;
+                }
+        }
+
+        private final FileChannel channel;
+        private long end = 0; // The position where the next record is appended
+        private final HashMap<Long, LoggedPage> loggedPages = new HashMap<>(); // nodeId -> latest image
+        private final LinkedHashMap<Long, Long> freedPages = new LinkedHashMap<>(); // nodeId -> page, of recovered frees
+        private long committedEnd = 0; // The end of the last commit record
+        private ByteBuffer recordBuffer = ByteBuffer.allocate(0); // Reused for encoding page records
+        private byte[] committedIndexMetaData; // The Meta Data of the last recovered commit
+        private byte[] committedDataMetaData;
+
+        /**
+         * @param channel of the log file, which must be empty or recovered before anything is appended
+         */
+        public WriteAheadLog(FileChannel channel)
+        {
+                this.channel = channel;
+        }
+
+        public boolean isEmpty() { return end == 0; }
+        public long size() { return end; }
+        public boolean hasUncommittedRecords() { return end > committedEnd; }
+
+        /**
+         * Appends an image of a Node page
+         * @param nodeId of the Node
+         * @param page of the index file the Node belongs to
+         * @param image a buffer holding the whole serialised page, from position 0 to its limit
+         * @throws IOException if the record can't be written
+         */
+        public synchronized void appendPage(long nodeId, long page, ByteBuffer image) throws IOException
+        {
+                int imageBytes = image.limit(),
+                        recordBytes = PAGE_RECORD_HEADER_BYTES + imageBytes + Long.BYTES;
+                if (recordBuffer.capacity() < recordBytes)
+                {
+                        recordBuffer = ByteBuffer.allocate(recordBytes);
+                }
+                recordBuffer.clear();
+                recordBuffer.put(PAGE_RECORD)
+                        .putLong(nodeId)
+                        .putLong(page)
+                        .put(image.duplicate().position(0));
+                recordBuffer.putLong(ByteCodec.checksum(recordBuffer.array(), recordBytes - Long.BYTES));
+                recordBuffer.flip();
+
+                StorageSession.writeFully(channel, recordBuffer, end);
+                loggedPages.put(nodeId, new LoggedPage(page, end + PAGE_RECORD_HEADER_BYTES));
+                end += recordBytes;
+        }
+
+        /**
+         * Appends a commit record. The record is not forced to the storage device, see force().
+         * @param indexMetaData the serialised Meta Data of the index file
+         * @param dataMetaData the serialised Meta Data of the data file
+         * @throws IOException if the record can't be written
+         */
+        public synchronized void appendCommit(byte[] indexMetaData, byte[] dataMetaData) throws IOException
+        {
+                ByteBuffer record = ByteBuffer.allocate(COMMIT_RECORD_BYTES);
+                record.put(COMMIT_RECORD)
+                        .put(indexMetaData)
+                        .put(dataMetaData);
+                record.putLong(ByteCodec.checksum(record.array(), COMMIT_RECORD_BYTES - Long.BYTES));
+                record.flip();
+
+                StorageSession.writeFully(channel, record, end);
+                end += COMMIT_RECORD_BYTES;
+                committedEnd = end;
+        }
+
+        /**
+         * Appends a directory record, which moves a Node to another page without logging a new image of it
+         * @param nodeId of the Node
+         * @param page of the index file that holds the Node from now on, or 0 if the Node no longer exists
+         * @throws IOException if the record can't be written
+         */
+        public synchronized void appendDirectory(long nodeId, long page) throws IOException
+        {
+                appendDirectoryRecord(DIRECTORY_RECORD, nodeId, page);
+                loggedPages.put(nodeId, new LoggedPage(page, NO_IMAGE));
+        }
+
+        /**
+         * Appends a free record. The page of the Node joins the free chain at the next checkpoint, and a log that
+         * is recovered before that checkpoint returns it from getFreedPages.
+         * @param nodeId of the freed Node
+         * @param page of the index file holding the Node
+         * @throws IOException if the record can't be written
+         */
+        public synchronized void appendFree(long nodeId, long page) throws IOException
+        {
+                appendDirectoryRecord(FREE_RECORD, nodeId, page);
+        }
+
+        private void appendDirectoryRecord(byte type, long nodeId, long page) throws IOException
+        {
+                ByteBuffer record = ByteBuffer.allocate(DIRECTORY_RECORD_BYTES);
+                record.put(type)
+                        .putLong(nodeId)
+                        .putLong(page);
+                record.putLong(ByteCodec.checksum(record.array(), DIRECTORY_RECORD_BYTES - Long.BYTES));
+                record.flip();
+
+                StorageSession.writeFully(channel, record, end);
+                end += DIRECTORY_RECORD_BYTES;
+        }
+
+        /**
+         * Forces every appended record to the storage device
+         * @throws IOException if forcing fails
+         */
+        public void force() throws IOException
+        {
+                channel.force(false);
+        }
+
+        /**
+         * Reads the latest logged image of a Node
+         * @param nodeId of the Node
+         * @param image a buffer to be filled with the page, from position 0 to its limit
+         * @return whether the Node has a logged image
+         * @throws IOException if the image can't be read
+         */
+        public boolean readPage(long nodeId, ByteBuffer image) throws IOException
+        {
+                LoggedPage loggedPage;
+                synchronized (this)
+                {
+                        loggedPage = loggedPages.get(nodeId);
+                }
+                if (loggedPage == null || loggedPage.position == NO_IMAGE)
+                {
+                        return false;
+                }
+                StorageSession.readFully(channel, image, loggedPage.position);
+                return true;
+        }
+
+        /**
+         * @return the page of every Node with a logged image or directory record, by Node id. The page is 0 for a
+         * dropped Node.
+         */
+        public synchronized Map<Long, Long> getPages()
+        {
+                HashMap<Long, Long> pages = new HashMap<>();
+                for (Map.Entry<Long, LoggedPage> loggedPage : loggedPages.entrySet())
+                {
+                        pages.put(loggedPage.getKey(), loggedPage.getValue().page);
+                }
+                return pages;
+        }
+
+        /**
+         * Copies the latest image of every logged page to the index file, in page order
+         * @param indexChannel of the index file
+         * @param pageSize the size of the pages in bytes
+         * @throws IOException if copying fails
+         */
+        public synchronized void applyTo(FileChannel indexChannel, int pageSize) throws IOException
+        {
+                ArrayList<LoggedPage> pages = new ArrayList<>(loggedPages.values());
+                pages.sort(Comparator.comparingLong(loggedPage -> loggedPage.page));
+                ByteBuffer image = ByteBuffer.allocate(pageSize);
+                for (LoggedPage loggedPage : pages)
+                {
+                        if (loggedPage.position == NO_IMAGE)
+                        {
+                                continue;
+                        }
+                        image.clear();
+                        StorageSession.readFully(channel, image, loggedPage.position);
+                        image.flip();
+                        StorageSession.writeFully(indexChannel, image, loggedPage.page * pageSize);
+                }
+        }
+
+        /**
+         * Empties the log, after its pages have been applied to the index file
+         * @throws IOException if the log file can't be truncated
+         */
+        public synchronized void truncate() throws IOException
+        {
+                channel.truncate(0);
+                end = 0;
+                committedEnd = 0;
+                loggedPages.clear();
+                freedPages.clear();
+                committedIndexMetaData = null;
+                committedDataMetaData = null;
+        }
+
+        /**
+         * Reads the log left by a previous session and keeps the page images, directory changes and frees up to its
+         * last valid commit record. Records after the last commit, including a torn last record, are discarded.
+         * @param pageSize the size of the pages in bytes
+         * @return whether the log contained a commit, whose Meta Data are then returned by getCommittedIndexMetaData
+         * and getCommittedDataMetaData
+         * @throws IOException if the log can't be read
+         */
+        public synchronized boolean recover(int pageSize) throws IOException
+        {
+                long size = channel.size(), position = 0;
+                HashMap<Long, LoggedPage> uncommittedPages = new HashMap<>();
+                LinkedHashMap<Long, Long> uncommittedFrees = new LinkedHashMap<>();
+                ByteBuffer pageRecord = ByteBuffer.allocate(PAGE_RECORD_HEADER_BYTES + pageSize + Long.BYTES),
+                        commitRecord = ByteBuffer.allocate(COMMIT_RECORD_BYTES),
+                        directoryRecord = ByteBuffer.allocate(DIRECTORY_RECORD_BYTES);
+
+                loggedPages.clear();
+                freedPages.clear();
+                end = 0;
+                while (position < size)
+                {
+                        ByteBuffer type = ByteBuffer.allocate(1);
+                        StorageSession.readFully(channel, type, position);
+                        ByteBuffer record = type.get(0) == PAGE_RECORD ? pageRecord :
+                                type.get(0) == COMMIT_RECORD ? commitRecord :
+                                type.get(0) == DIRECTORY_RECORD || type.get(0) == FREE_RECORD ? directoryRecord : null;
+                        if (record == null || position + record.capacity() > size)
+                        {
+                                break;
+                        }
+                        record.clear();
+                        StorageSession.readFully(channel, record, position);
+                        int checksumPosition = record.capacity() - Long.BYTES;
+                        if (record.getLong(checksumPosition) != ByteCodec.checksum(record.array(), checksumPosition))
+                        {
+                                break;
+                        }
+
+                        if (record == pageRecord)
+                        {
+                                uncommittedPages.put(record.getLong(1),
+                                        new LoggedPage(record.getLong(1 + Long.BYTES), position + PAGE_RECORD_HEADER_BYTES));
+                        }
+                        else if (type.get(0) == DIRECTORY_RECORD)
+                        {
+                                uncommittedPages.put(record.getLong(1), new LoggedPage(record.getLong(1 + Long.BYTES), NO_IMAGE));
+                        }
+                        else if (type.get(0) == FREE_RECORD)
+                        {
+                                uncommittedFrees.put(record.getLong(1), record.getLong(1 + Long.BYTES));
+                        }
+                        else
+                        {
+                                loggedPages.putAll(uncommittedPages);
+                                uncommittedPages.clear();
+                                freedPages.putAll(uncommittedFrees);
+                                uncommittedFrees.clear();
+                                committedIndexMetaData = new byte[IndexMetaData.BYTES];
+                                committedDataMetaData = new byte[DataMetaData.BYTES];
+                                record.position(1);
+                                record.get(committedIndexMetaData).get(committedDataMetaData);
+                                end = position + COMMIT_RECORD_BYTES;
+                        }
+                        position += record.capacity();
+                }
+                channel.truncate(end);
+                committedEnd = end;
+                return committedIndexMetaData != null;
+        }
+
+        /**
+         * @return the page of every Node freed up to the last recovered commit, by Node id in the order of the frees
+         */
+        public synchronized Map<Long, Long> getFreedPages()
+        {
+                return new LinkedHashMap<>(freedPages);
+        }
+
+        public byte[] getCommittedIndexMetaData() { return committedIndexMetaData; }
+        public byte[] getCommittedDataMetaData() { return committedDataMetaData; }
+}